@@ -0,0 +1,164 @@
+package bguspl.set;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Throughput of the Util set kernels, for every implementation listed in the implementation parameter (add new ones
+ * to create). The inputs are generated from a fixed seed, so runs of different builds measure the same work.
+ * <p>
+ * Build and run (the allocation rate per operation is reported by the gc profiler as gc.alloc.rate.norm):
+ * <pre>
+ *     mvn -P benchmarks package
+ *     java -jar target/benchmarks.jar UtilBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class UtilBenchmark {
+
+    /**
+     * The number of generated inputs the benchmarks cycle through (a power of 2).
+     */
+    private static final int INPUTS = 1024;
+    private static final long SEED = 2023;
+
+    @Param({"UtilImpl"})
+    public String implementation;
+
+    @Param({"3", "4"})
+    public int featureCount;
+
+    @Param({"3", "4"})
+    public int featureSize;
+
+    @Param({"12", "21"})
+    public int tableSize;
+
+    /**
+     * The count passed to findSets: 1 is the dealer's end of game check, all sets are the hints and the table gauge.
+     */
+    @Param({"1", "2147483647"})
+    public int setsRequired;
+
+    private Util util;
+    private List<Integer> deck;
+    private List<List<Integer>> tables;
+    private int[][] claims;
+    private int[] cards;
+    private int next;
+
+    @Setup
+    public void setup() {
+        Properties properties = new Properties();
+        properties.setProperty("FeatureCount", Integer.toString(featureCount));
+        properties.setProperty("FeatureSize", Integer.toString(featureSize));
+        Logger logger = Logger.getAnonymousLogger();
+        logger.setUseParentHandlers(false);
+        Config config = new Config(logger, properties);
+        util = create(implementation, config);
+
+        Random random = new Random(SEED);
+        deck = IntStream.range(0, config.deckSize).boxed().collect(Collectors.toList());
+
+        tables = new ArrayList<>(INPUTS);
+        for (int i = 0; i < INPUTS; i++) {
+            List<Integer> shuffled = new ArrayList<>(deck);
+            Collections.shuffle(shuffled, random);
+            tables.add(new ArrayList<>(shuffled.subList(0, Math.min(tableSize, shuffled.size()))));
+        }
+
+        // half of the claims are legal sets, the other half are random (mostly illegal) cards
+        claims = new int[INPUTS][];
+        for (int i = 0; i < INPUTS; i++)
+            claims[i] = i % 2 == 0 ? legalSet(random) : randomCards(random, config.deckSize);
+        cards = random.ints(INPUTS, 0, config.deckSize).toArray();
+    }
+
+    /**
+     * @return - the implementation of the given name.
+     */
+    private static Util create(String implementation, Config config) {
+        switch (implementation) {
+            case "UtilImpl":
+                return new UtilImpl(config);
+            default:
+                throw new IllegalArgumentException("unknown util implementation " + implementation);
+        }
+    }
+
+    /**
+     * @return - featureSize cards that form a legal set (each feature is either the same or different in all of them).
+     */
+    private int[] legalSet(Random random) {
+        int[] set = new int[featureSize];
+        for (int feature = 0; feature < featureCount; feature++) {
+            boolean same = feature > 0 && random.nextBoolean(); // the cards of a set are distinct
+            int value = random.nextInt(featureSize);
+            List<Integer> values = IntStream.range(0, featureSize).boxed().collect(Collectors.toList());
+            Collections.shuffle(values, random);
+            for (int card = 0; card < featureSize; card++)
+                set[card] = set[card] * featureSize + (same ? value : values.get(card));
+        }
+        return set;
+    }
+
+    private int[] randomCards(Random random, int deckSize) {
+        return random.ints(0, deckSize).distinct().limit(featureSize).toArray();
+    }
+
+    private int next() {
+        return next++ & (INPUTS - 1);
+    }
+
+    @Benchmark
+    public boolean testSet() {
+        return util.testSet(claims[next()]);
+    }
+
+    @Benchmark
+    public List<int[]> findSetsOnTable() {
+        return util.findSets(tables.get(next()), setsRequired);
+    }
+
+    /**
+     * The dealer's check whether the remaining cards hold a set (run after every claim and reshuffle).
+     */
+    @Benchmark
+    public List<int[]> findSetsInDeck() {
+        return util.findSets(deck, 1);
+    }
+
+    @Benchmark
+    public int[] cardToFeatures() {
+        return util.cardToFeatures(cards[next()]);
+    }
+
+    @Benchmark
+    public int[][] cardsToFeatures() {
+        return util.cardsToFeatures(claims[next()]);
+    }
+}
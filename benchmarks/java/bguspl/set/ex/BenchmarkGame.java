@@ -0,0 +1,173 @@
+package bguspl.set.ex;
+
+import bguspl.set.Config;
+import bguspl.set.UserInterfaceAdapter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A running game without a window for the handoff benchmarks: the dealer and the player threads run as in a real game
+ * (with no table delays, freezes or reshuffles), and the benchmark threads act as the key presses. Token changes are
+ * observed through a user interface that counts them.
+ */
+class BenchmarkGame {
+
+    private final Config config;
+    private final Dealer dealer;
+    private final Player[] players;
+    private final HeadlessGame game;
+    private final Future<?> dealerTask;
+    private final TokenCounter tokens;
+    private final List<Thread> loadThreads = new ArrayList<>();
+    private int[] claimSlots;
+    private volatile boolean stopLoad;
+
+    /**
+     * Starts a game and waits until its table is full.
+     *
+     * @param playerCount - the number of (human) players.
+     */
+    BenchmarkGame(int playerCount) {
+        Properties properties = new Properties();
+        properties.setProperty("HumanPlayers", Integer.toString(playerCount));
+        properties.setProperty("ComputerPlayers", "0");
+        properties.setProperty("TurnTimeoutSeconds", "3600");
+        properties.setProperty("TableDelaySeconds", "0");
+        properties.setProperty("PointFreezeSeconds", "0");
+        properties.setProperty("PenaltyFreezeSeconds", "0");
+        properties.setProperty("LogLevel", "OFF");
+        properties.setProperty("JmxMetrics", "False");
+        properties.setProperty("LatencyStatistics", "False");
+        tokens = new TokenCounter(playerCount);
+        game = new HeadlessGame(properties, tokens);
+        config = game.config;
+        players = game.players;
+        dealer = game.dealer;
+        dealerTask = game.start();
+
+        while (tokens.cards.get() < config.tableSize || !game.table.canPress) Thread.yield();
+    }
+
+    /**
+     * Places the tokens of every player on all the slots of a claim but the last one (see claim). The claimed cards
+     * are not a set, so the claims are rejected and the table does not change (a legal set would be replaced by new
+     * cards until the deck ran out).
+     */
+    void prepareClaims() {
+        int size = config.featureSize;
+        claimSlots = new int[size];
+        int[] cards = new int[size];
+        for (int i = 0; i < size; i++) {
+            claimSlots[i] = i;
+            cards[i] = game.table.slotToCard[i];
+        }
+        while (game.env.util.testSet(cards)) {
+            claimSlots[size - 1]++;
+            cards[size - 1] = game.table.slotToCard[claimSlots[size - 1]];
+        }
+        for (int player = 0; player < players.length; player++)
+            for (int i = 0; i < size - 1; i++)
+                press(player, claimSlots[i]);
+    }
+
+    /**
+     * One claim through the player thread: presses the last key of the claim, so the player thread places the token,
+     * queues itself for the dealer and waits for the verdict and its penalty. Then presses the key again to remove the
+     * token for the next claim (after the penalty, which drops the queued key presses).
+     *
+     * @param player - the player (see prepareClaims).
+     */
+    void claim(int player) {
+        Player claimer = players[player];
+        long handled = claimer.verdicts();
+        press(player, claimSlots[claimSlots.length - 1]);
+        while (claimer.verdicts() == handled && !stopLoad) Thread.yield();
+        press(player, claimSlots[claimSlots.length - 1]);
+    }
+
+    /**
+     * Presses a key of the player and waits until the player thread placed or removed the token.
+     *
+     * @param player - the player.
+     * @param slot   - the slot of the key.
+     */
+    void press(int player, int slot) {
+        long before = tokens.tokens.get(player);
+        players[player].keyPressed(slot);
+        while (tokens.tokens.get(player) == before && !stopLoad) Thread.yield();
+    }
+
+    int tableSize() {
+        return config.tableSize;
+    }
+
+    /**
+     * Runs an operation in a loop for players 1 to n - 1 (player 0 is left to the measured thread).
+     *
+     * @param operation - the operation, given the player.
+     */
+    void startLoad(LoadOperation operation) {
+        for (int i = 1; i < players.length; i++) {
+            int player = i;
+            Thread thread = new Thread(() -> {
+                try {
+                    while (!stopLoad) operation.run(player);
+                } catch (InterruptedException ignored) {
+                }
+            }, "load-" + player);
+            thread.setDaemon(true);
+            thread.start();
+            loadThreads.add(thread);
+        }
+    }
+
+    void close() throws Exception {
+        stopLoad = true;
+        dealer.terminate();
+        for (Thread thread : loadThreads) thread.join();
+        dealerTask.get();
+        dealer.shutdown();
+    }
+
+    interface LoadOperation {
+        void run(int player) throws InterruptedException;
+    }
+
+    /**
+     * Counts the placed cards and the token changes of every player.
+     */
+    private static class TokenCounter extends UserInterfaceAdapter {
+
+        private final AtomicLong cards = new AtomicLong();
+        private final AtomicLongArray tokens;
+
+        private TokenCounter(int players) {
+            tokens = new AtomicLongArray(players);
+        }
+
+        @Override
+        public void placeCard(int card, int slot) {
+            cards.incrementAndGet();
+        }
+
+        @Override
+        public void removeCard(int slot) {
+            cards.decrementAndGet();
+        }
+
+        @Override
+        public void placeToken(int player, int slot) {
+            tokens.incrementAndGet(player);
+        }
+
+        @Override
+        public void removeToken(int player, int slot) {
+            tokens.incrementAndGet(player);
+        }
+    }
+}
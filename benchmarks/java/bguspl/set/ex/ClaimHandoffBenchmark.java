@@ -0,0 +1,60 @@
+package bguspl.set.ex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of a claim through the player thread: the key press that places the last token of a claim, the player
+ * queueing itself in Dealer.playerSet and calling wakeDealer, the dealer taking the claim in timerLoop and testing it
+ * under the player monitor, releasePlayer waking the player and its (zero) penalty, and the key press that removes the
+ * token again (see KeyPressBenchmark for a token toggle alone). The claims are not sets, so the table does not change.
+ * Players 1 to n - 1 make claims in a loop while player 0 is measured, and the sampled times are reported as
+ * percentiles (p0.50 to p1.00).
+ * <p>
+ * Run with: java -jar target/benchmarks.jar ClaimHandoffBenchmark (see UtilBenchmark for building the jar).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ClaimHandoffBenchmark {
+
+    /**
+     * The number of concurrent players.
+     */
+    @Param({"1", "2", "4", "8", "32"})
+    public int players;
+
+    private BenchmarkGame game;
+
+    @Setup
+    public void setup() {
+        game = new BenchmarkGame(players);
+        game.prepareClaims();
+        game.startLoad(game::claim);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        game.close();
+    }
+
+    @Benchmark
+    public void claimRoundTrip() {
+        game.claim(0);
+    }
+}
@@ -0,0 +1,57 @@
+package bguspl.set.ex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of a key press until the player thread placed or removed its token: Player.keyPressed queues the slot, the
+ * player thread takes it in Player.run and toggles the token on the table. Every player presses its own slot (so
+ * players 1 to n - 1 contend with the measured player 0 for the table monitor only), and the sampled times are
+ * reported as percentiles (p0.50 to p1.00).
+ * <p>
+ * Run with: java -jar target/benchmarks.jar KeyPressBenchmark (see UtilBenchmark for building the jar).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class KeyPressBenchmark {
+
+    /**
+     * The number of concurrent players.
+     */
+    @Param({"1", "2", "4", "8", "32"})
+    public int players;
+
+    private BenchmarkGame game;
+
+    @Setup
+    public void setup() {
+        game = new BenchmarkGame(players);
+        game.startLoad(player -> game.press(player, player % game.tableSize()));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        game.close();
+    }
+
+    @Benchmark
+    public void keyPressToToken() {
+        game.press(0, 0);
+    }
+}
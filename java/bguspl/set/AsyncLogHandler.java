@@ -0,0 +1,239 @@
+package bguspl.set;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+/**
+ * A log handler that never blocks the logging threads: records are put into a bounded lock-free ring buffer and a
+ * background writer thread formats them (so the formatting of the message and its parameters is done off the game
+ * threads) and writes them to the log file in batches. The file is rotated when it reaches a maximum size (the
+ * previous files are kept as file.1, file.2 etc.). When the ring buffer is full the record is dropped and counted,
+ * and the number of dropped records is written to the log once there is room again.
+ */
+public class AsyncLogHandler extends Handler {
+
+    /**
+     * The maximum number of records written between two flushes of the file.
+     */
+    private static final int MAX_BATCH = 256;
+
+    /**
+     * The time the writer sleeps when there are no records.
+     */
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    private final String filename;
+    private final long maxFileBytes;
+    private final int maxFiles;
+
+    /**
+     * The ring buffer (a bounded multi producer, single consumer queue): a producer claims a position by advancing the
+     * tail and publishes its record by setting the slot sequence; the writer consumes the slots in order.
+     */
+    private final AtomicReferenceArray<LogRecord> slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private long head;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writerThread;
+    private volatile boolean closed;
+
+    private Writer out;
+
+    /**
+     * The file under the writer, which counts the encoded bytes (the writer buffers a few kilobytes of them, so the
+     * count lags behind the records written by at most that much).
+     */
+    private CountingOutputStream file;
+
+    /**
+     * The class constructor. Opens (truncates) the log file and starts the writer thread.
+     *
+     * @param filename     - the log file.
+     * @param capacity     - the number of records the ring buffer holds (rounded up to a power of 2).
+     * @param maxFileBytes - the size at which the log file is rotated.
+     * @param maxFiles     - the number of log files kept (including the current one).
+     */
+    public AsyncLogHandler(String filename, int capacity, long maxFileBytes, int maxFiles) throws IOException {
+        this.filename = filename;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = Math.max(1, maxFiles);
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        slots = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) sequences.set(i, i);
+        mask = size - 1;
+        open();
+
+        writerThread = new Thread(this::drainLoop, "log-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (closed || !isLoggable(record)) return;
+        while (true) {
+            long position = tail.get();
+            int index = (int) (position & mask);
+            long diff = sequences.get(index) - position;
+            if (diff == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots.set(index, record);
+                    sequences.set(index, position + 1);
+                    // wake up the writer early when the buffer fills up
+                    if ((position & (mask >> 1)) == 0) LockSupport.unpark(writerThread);
+                    return;
+                }
+            } else if (diff < 0) {
+                dropped.incrementAndGet();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return - the next record, or null if there is none (called by the writer only).
+     */
+    private LogRecord poll() {
+        int index = (int) (head & mask);
+        if (sequences.get(index) != head + 1) return null;
+        LogRecord record = slots.get(index);
+        slots.set(index, null);
+        sequences.set(index, head + mask + 1);
+        head++;
+        return record;
+    }
+
+    private void drainLoop() {
+        while (!closed) {
+            if (drain() == 0) LockSupport.parkNanos(this, IDLE_NANOS);
+        }
+    }
+
+    /**
+     * Writes all the records in the buffer, flushing the file once per batch.
+     *
+     * @return - the number of records written.
+     */
+    private synchronized int drain() {
+        int written = 0;
+        try {
+            long lost = dropped.getAndSet(0);
+            if (lost > 0) write(lost + " log records were dropped (the log buffer was full)" + System.lineSeparator());
+            LogRecord record;
+            int batch = 0;
+            while ((record = poll()) != null) {
+                write(getFormatter() == null ? record.getMessage() + System.lineSeparator() : getFormatter().format(record));
+                written++;
+                if (++batch == MAX_BATCH) {
+                    out.flush();
+                    batch = 0;
+                }
+            }
+            if (written > 0 || lost > 0) out.flush();
+        } catch (IOException | RuntimeException e) {
+            reportError(null, e, ErrorManager.WRITE_FAILURE);
+        }
+        return written;
+    }
+
+    private void write(String text) throws IOException {
+        if (file.count >= maxFileBytes) rotate();
+        out.write(text);
+    }
+
+    private void open() throws IOException {
+        file = new CountingOutputStream(new FileOutputStream(filename));
+        out = new OutputStreamWriter(file, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Renames file to file.1, file.1 to file.2 etc. (dropping the oldest file) and opens a new file.
+     */
+    private void rotate() throws IOException {
+        out.close();
+        new File(filename + "." + (maxFiles - 1)).delete();
+        for (int i = maxFiles - 2; i >= 0; i--) {
+            File file = new File(i == 0 ? filename : filename + "." + i);
+            if (file.exists() && !file.renameTo(new File(filename + "." + (i + 1))))
+                reportError("cannot rotate " + file, null, ErrorManager.GENERIC_FAILURE);
+        }
+        open();
+    }
+
+    /**
+     * Writes the records published so far.
+     */
+    @Override
+    public void flush() {
+        drain();
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join();
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            drain();
+            try {
+                out.close();
+            } catch (IOException e) {
+                reportError(null, e, ErrorManager.CLOSE_FAILURE);
+            }
+        }
+    }
+
+    /**
+     * @return - the number of records dropped since the last time the count was written to the log.
+     */
+    public long dropped() {
+        return dropped.get();
+    }
+
+    /**
+     * An output stream that counts the bytes written through it.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package bguspl.set;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.geom.Ellipse2D;
+import java.awt.image.BufferedImage;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+/**
+ * The card art of the swing user interface. Card images are decoded in parallel in the background when the window is
+ * created (up to the cache size), or on first display otherwise, and are packed scaled to the cell size into the tiles
+ * of a single atlas image. The atlas keeps the most recently displayed cards (LRU) within a memory budget, so the time
+ * to the first frame and the memory used do not depend on the deck size. The background loaders scale each card to a
+ * tile and hand it to the event dispatch thread, which packs it into a free tile, so the decoded cards are not kept
+ * outside the budget.
+ * <p>
+ * The image files are used only for the geometry they were drawn for (4 features of 3 values). Any other geometry, or
+ * any geometry when ProceduralCards is set, has all its cards drawn from their features instead (never a mix of the
+ * two styles, which encode the features differently): the first feature is the number of symbols, the second their
+ * color, the third their shape, the fourth their shading and any further features are printed as digits.
+ * <p>
+ * Note: all the methods except the constructor must be called on the event dispatch thread.
+ */
+class CardImages {
+
+    private final Logger logger;
+    private final Config config;
+    private final Util util;
+    private final BufferedImage emptyCard;
+
+    /**
+     * The atlas image and its geometry (in tiles).
+     */
+    private final BufferedImage atlas;
+    private final int atlasColumns;
+    private final int capacity;
+
+    /**
+     * The tile of each card in the atlas, in access order (the eldest entry is the least recently displayed card).
+     */
+    private final LinkedHashMap<Integer, Integer> tiles = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * True iff the cards are drawn from the image files (the shipped geometry, unless ProceduralCards is set).
+     */
+    private final boolean imageFiles;
+
+    CardImages(Logger logger, Config config) {
+        this.logger = logger;
+        this.config = config;
+        util = new UtilImpl(config);
+        imageFiles = !config.proceduralCards && config.featureCount == 4 && config.featureSize == 3;
+        long tileBytes = 4L * config.cellWidth * config.cellHeight;
+        long budgetTiles = config.cardCacheMegabytes * 1024L * 1024L / tileBytes;
+        capacity = (int) Math.max(config.tableSize, Math.min(config.deckSize, budgetTiles));
+        atlasColumns = (int) Math.ceil(Math.sqrt(capacity));
+        int atlasRows = (capacity + atlasColumns - 1) / atlasColumns;
+        atlas = compatibleImage(atlasColumns * config.cellWidth, atlasRows * config.cellHeight);
+
+        BufferedImage empty = decode("cards/empty_card.png");
+        if (empty == null)
+            throw new UncheckedIOException(new FileNotFoundException("cards/empty_card.png"));
+        emptyCard = compatibleImage(config.cellWidth, config.cellHeight);
+        drawScaled(emptyCard, empty, 0, 0);
+
+        if (imageFiles) prefetch(Math.min(config.deckSize, capacity));
+    }
+
+    /**
+     * Decodes the first cards of the deck in parallel, without waiting for them, and packs them into the atlas.
+     *
+     * @param count - the number of cards to decode.
+     */
+    private void prefetch(int count) {
+        ExecutorService loaders = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+            Thread thread = new Thread(r, "card-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int card = 0; card < count; card++) {
+            int id = card;
+            loaders.execute(() -> {
+                BufferedImage image = decodeCard(id);
+                if (image == null) return;
+                BufferedImage scaled = compatibleImage(config.cellWidth, config.cellHeight);
+                drawScaled(scaled, image, 0, 0);
+                EventQueue.invokeLater(() -> pack(id, scaled));
+            });
+        }
+        loaders.shutdown();
+    }
+
+    /**
+     * Draws a card at the given position, scaled to the cell size.
+     *
+     * @param g    - the graphics to draw to.
+     * @param card - the card id, or -1 for an empty card.
+     * @param x    - the x coordinate of the cell.
+     * @param y    - the y coordinate of the cell.
+     */
+    void draw(Graphics g, int card, int x, int y) {
+        if (card < 0) {
+            g.drawImage(emptyCard, x, y, null);
+            return;
+        }
+        int tile = tile(card);
+        int sx = (tile % atlasColumns) * config.cellWidth;
+        int sy = (tile / atlasColumns) * config.cellHeight;
+        g.drawImage(atlas, x, y, x + config.cellWidth, y + config.cellHeight,
+                sx, sy, sx + config.cellWidth, sy + config.cellHeight, null);
+    }
+
+    /**
+     * Packs a card decoded in the background into a free tile (it is dropped if the card was already loaded on display
+     * or the atlas is full).
+     *
+     * @param card  - the card id.
+     * @param image - the card image, scaled to the cell size.
+     */
+    private void pack(int card, BufferedImage image) {
+        if (tiles.containsKey(card) || tiles.size() >= capacity) return;
+        int tile = tiles.size();
+        tiles.put(card, tile);
+        Graphics2D g = atlas.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.drawImage(image, (tile % atlasColumns) * config.cellWidth, (tile / atlasColumns) * config.cellHeight, null);
+        g.dispose();
+    }
+
+    /**
+     * Returns the atlas tile of a card, loading it into the least recently used tile if needed.
+     */
+    private int tile(int card) {
+        Integer tile = tiles.get(card);
+        if (tile != null) return tile;
+
+        if (tiles.size() < capacity) {
+            tile = tiles.size();
+        } else {
+            Iterator<Integer> eldest = tiles.values().iterator();
+            tile = eldest.next();
+            eldest.remove();
+        }
+        tiles.put(card, tile);
+
+        BufferedImage image = decodeCard(card);
+        int x = (tile % atlasColumns) * config.cellWidth;
+        int y = (tile / atlasColumns) * config.cellHeight;
+        if (image != null) drawScaled(atlas, image, x, y);
+        else render(atlas, card, x, y);
+        return tile;
+    }
+
+    /**
+     * Draws a card from its features.
+     *
+     * @param target - the image to draw to.
+     * @param card   - the card id.
+     * @param x      - the x coordinate of the tile.
+     * @param y      - the y coordinate of the tile.
+     */
+    void render(BufferedImage target, int card, int x, int y) {
+        int[] features = util.cardToFeatures(card);
+        int count = feature(features, 0, 0) + 1;
+        int color = feature(features, 1, 0);
+        int shape = feature(features, 2, 0);
+        int shading = feature(features, 3, config.featureSize - 1);
+
+        Graphics2D g = target.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.drawImage(emptyCard, x, y, null);
+        g.setComposite(AlphaComposite.SrcOver);
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.clipRect(x, y, config.cellWidth, config.cellHeight);
+        g.setColor(Color.WHITE);
+        g.fillRoundRect(x + 4, y + 4, config.cellWidth - 8, config.cellHeight - 8, 16, 16);
+
+        // up to 5 symbols are drawn side by side, more are drawn as one symbol and a count
+        int symbols = count <= 5 ? count : 1;
+        int symbolWidth = config.cellWidth / 7;
+        int symbolHeight = config.cellHeight * 3 / 5;
+        int gap = symbolWidth / 3;
+        int left = x + (config.cellWidth - symbols * symbolWidth - (symbols - 1) * gap) / 2;
+        int top = y + (config.cellHeight - symbolHeight) / 2;
+        Color hue = Color.getHSBColor((float) color / config.featureSize, 0.85f, 0.8f);
+        Color fill = new Color(hue.getRed(), hue.getGreen(), hue.getBlue(),
+                config.featureSize > 1 ? 255 * shading / (config.featureSize - 1) : 255);
+        g.setStroke(new BasicStroke(Math.max(1f, config.cellWidth / 80f)));
+        for (int i = 0; i < symbols; i++) {
+            Shape symbol = symbol(shape, left + i * (symbolWidth + gap), top, symbolWidth, symbolHeight);
+            g.setColor(fill);
+            g.fill(symbol);
+            g.setColor(hue);
+            g.draw(symbol);
+        }
+
+        g.setFont(new Font("SansSerif", Font.BOLD, Math.max(8, config.cellHeight / 8)));
+        g.setColor(Color.DARK_GRAY);
+        FontMetrics metrics = g.getFontMetrics();
+        if (symbols != count) g.drawString("x" + count, left + symbolWidth + gap, top + symbolHeight);
+        if (features.length > 4) {
+            StringBuilder digits = new StringBuilder();
+            for (int i = 4; i < features.length; i++) digits.append(Character.forDigit(features[i], Character.MAX_RADIX));
+            g.drawString(digits.toString(), x + (config.cellWidth - metrics.stringWidth(digits.toString())) / 2,
+                    y + config.cellHeight - metrics.getDescent() - 4);
+        }
+        g.dispose();
+    }
+
+    private static int feature(int[] features, int index, int missing) {
+        return index < features.length ? features[index] : missing;
+    }
+
+    /**
+     * @return - the outline of a symbol: an ellipse for shape 0, and a regular polygon of shape + 2 sides otherwise.
+     */
+    private static Shape symbol(int shape, int x, int y, int width, int height) {
+        if (shape == 0) return new Ellipse2D.Float(x, y, width, height);
+        int sides = shape + 2;
+        Polygon polygon = new Polygon();
+        for (int i = 0; i < sides; i++) {
+            double angle = -Math.PI / 2 + 2 * Math.PI * i / sides;
+            polygon.addPoint(x + (int) Math.round(width / 2.0 * (1 + Math.cos(angle))),
+                    y + (int) Math.round(height / 2.0 * (1 + Math.sin(angle))));
+        }
+        return polygon;
+    }
+
+    private BufferedImage decodeCard(int card) {
+        if (!imageFiles) return null;
+        return decode("cards/" + UserInterfaceSwing.intInBaseToPaddedString(card, config.featureCount, config.featureSize) + ".png");
+    }
+
+    /**
+     * @return - the decoded image resource, or null if there is no such resource.
+     */
+    private BufferedImage decode(String filename) {
+        try (InputStream is = getClass().getClassLoader().getResourceAsStream(filename)) {
+            return is == null ? null : ImageIO.read(is);
+        } catch (IOException e) {
+            logger.warning("cannot decode " + filename + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void drawScaled(BufferedImage target, Image image, int x, int y) {
+        Graphics2D g = target.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(image, x, y, config.cellWidth, config.cellHeight, null);
+        g.dispose();
+    }
+
+    private static BufferedImage compatibleImage(int width, int height) {
+        if (GraphicsEnvironment.isHeadless()) return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
+        return gc.createCompatibleImage(width, height, Transparency.TRANSLUCENT);
+    }
+}
@@ -7,6 +7,7 @@ import java.nio.file.InvalidPathException;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -21,6 +22,22 @@ public class Config {
     public final long randomSpinMin;
     public final long randomSpinMax;
 
+    /**
+     * The maximum spin cycles of schedule fuzzing when RandomSpinMax is 0 (see scheduleFuzzing)
+     */
+    public static final long SCHEDULE_FUZZING_SPIN_MAX = 100;
+
+    /**
+     * Whether to also spin at every monitor of the dealer, the players and the table, to fuzz the thread schedule (with
+     * RandomSpinMax=0 the spins take up to SCHEDULE_FUZZING_SPIN_MAX cycles)
+     */
+    public final boolean scheduleFuzzing;
+
+    /**
+     * The seed of the random spins of each thread (0 for a random seed, which is logged so the run can be replayed)
+     */
+    public final long scheduleSeed;
+
     /**
      * The number of features on the cards (e.g. shape, color etc.)
      */
@@ -86,6 +103,21 @@ public class Config {
      */
     public final long endGamePauseMillies;
 
+    /**
+     * The number of games to play one after the other in the same process (0 to keep playing until the window is closed)
+     */
+    public final int rounds;
+
+    /**
+     * The seed of the dealer's card draws and the computer players' key presses (0 for a different game every run)
+     */
+    public final long randomSeed;
+
+    /**
+     * The number of key presses per second of each computer player (0 for as fast as its key press queue allows)
+     */
+    public final double computerPressesPerSecond;
+
     /**
      * The names of the players to display on the screen
      * Note: if there are more players than names, the remaining players will be called "Player 3", "Player 4", etc.
@@ -132,6 +164,128 @@ public class Config {
      */
     public final int fontSize;
 
+    /**
+     * The number of times per second the pending ui updates are applied to the window
+     */
+    public final int framesPerSecond;
+
+    /**
+     * The memory (in megabytes) of the swing card atlas (the least recently displayed cards are evicted when it is full)
+     */
+    public final int cardCacheMegabytes;
+
+    /**
+     * True iff the cards are always drawn from their features, rather than from the card image files
+     */
+    public final boolean proceduralCards;
+
+    /**
+     * The TCP port the game server listens on for remote players (negative to disable the server, 0 for any port)
+     */
+    public final int serverPort;
+
+    /**
+     * The address the game server binds to (loopback by default)
+     */
+    public final String serverHost;
+
+    /**
+     * The number of selector threads serving the game server connections
+     */
+    public final int serverIoThreads;
+
+    /**
+     * The maximum number of pending connections waiting to be accepted by the game server
+     */
+    public final int serverBacklog;
+
+    /**
+     * The maximum number of outgoing messages queued for a connection before it is dropped as too slow
+     */
+    public final int serverMaxQueuedMessages;
+
+    /**
+     * The interval (in milliseconds) at which updates are coalesced into a spectator frame (0 to disable spectators)
+     */
+    public final long spectatorFrameMillis;
+
+    /**
+     * The binary game journal file (empty to disable the journal)
+     */
+    public final String journalFile;
+
+    /**
+     * The interval (in milliseconds) at which the journal records are forced to disk
+     */
+    public final long journalFlushMillis;
+
+    /**
+     * The size (in bytes) of each memory-mapped chunk of the journal file
+     */
+    public final int journalChunkBytes;
+
+    /**
+     * The file the dealer writes the game snapshots to (empty to disable snapshots)
+     */
+    public final String snapshotFile;
+
+    /**
+     * The number of milliseconds between periodic snapshots (0 for on demand snapshots only)
+     */
+    public final long snapshotIntervalMillis;
+
+    /**
+     * Whether to resume the game from the snapshot file (if it exists) when the game starts
+     */
+    public final boolean snapshotRestore;
+
+    /**
+     * Whether to reload the tunable settings when the configuration file changes (see ConfigWatcher)
+     */
+    public final boolean configReload;
+
+    /**
+     * The number of milliseconds a busy game thread may go without progress before the watchdog reports a stall (0 to
+     * disable the watchdog)
+     */
+    public final long watchdogStallMillis;
+
+    /**
+     * The file the watchdog appends its reports to
+     */
+    public final String watchdogFile;
+
+    /**
+     * Whether to keep the input latency histograms (see InputLatency)
+     */
+    public final boolean latencyStatistics;
+
+    /**
+     * Whether to publish the game metrics as an MBean (see MetricsRegistry)
+     */
+    public final boolean jmxMetrics;
+
+    /**
+     * Whether to emit the game events to Java Flight Recorder recordings (see GameEvents)
+     */
+    public final boolean flightRecorderEvents;
+
+    /**
+     * Whether to profile the contention on the engine monitors and report it after each round (see LockProfiler)
+     */
+    public final boolean lockProfiling;
+
+    /**
+     * How key auto-repeat is handled: -1 drops the repeats until the key is released, 0 accepts all of them, and a
+     * positive value accepts a repeat at most once per that many milliseconds
+     */
+    public final long keyDebounceMillis;
+
+    /**
+     * True iff a key press that finds the player's queue full replaces the oldest queued press (otherwise it is dropped)
+     */
+    public final boolean inputDropOldest;
+
     /**
      * The scancodes of the keyboard input data for each player
      * Notes:
@@ -188,15 +342,33 @@ public class Config {
         Main.setLoggerLevelAndFormat(logger, logLevel, logFormat);
 
         // for debugging
+        scheduleFuzzing = Boolean.parseBoolean(properties.getProperty("ScheduleFuzzing", "False"));
         randomSpinMin = Long.parseLong(properties.getProperty("RandomSpinMin", "0"));
-        randomSpinMax = Long.parseLong(properties.getProperty("RandomSpinMax", "0"));
+        long spinMax = Long.parseLong(properties.getProperty("RandomSpinMax", "0"));
+        if (scheduleFuzzing && spinMax <= 0) {
+            // the schedule is fuzzed by the spins, so fuzzing without them would do nothing
+            spinMax = Math.max(randomSpinMin, SCHEDULE_FUZZING_SPIN_MAX);
+            logger.severe("warning: ScheduleFuzzing is set but RandomSpinMax is 0, using RandomSpinMax=" + spinMax);
+        }
+        randomSpinMax = spinMax;
         if (randomSpinMax < randomSpinMin || randomSpinMin < 0)
             logger.severe("invalid random spin cycles: max: " + randomSpinMax + " min: " + randomSpinMin);
+        long seed = Long.parseLong(properties.getProperty("ScheduleSeed", "0"));
+        while (seed == 0) seed = ThreadLocalRandom.current().nextLong();
+        scheduleSeed = seed;
 
         // cards settings
         featureSize = Integer.parseInt(properties.getProperty("FeatureSize", "3"));
         featureCount = Integer.parseInt(properties.getProperty("FeatureCount", "4"));
-        deckSize = (int) Math.pow(featureSize, featureCount);
+        // the card ids are ints, a larger deck would wrap around
+        int cards = 1;
+        try {
+            for (int i = 0; i < featureCount; ++i)
+                cards = Math.multiplyExact(cards, featureSize);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("a deck of " + featureSize + "^" + featureCount + " cards is too large");
+        }
+        deckSize = cards;
 
         // gameplay settings
         humanPlayers = Integer.parseInt(properties.getProperty("HumanPlayers", "2"));
@@ -210,6 +382,10 @@ public class Config {
         penaltyFreezeMillis = (long) (Double.parseDouble(properties.getProperty("PenaltyFreezeSeconds", "3")) * 1000.0);
         tableDelayMillis = (long) (Double.parseDouble(properties.getProperty("TableDelaySeconds", "0.1")) * 1000.0);
         endGamePauseMillies = (long) (Double.parseDouble(properties.getProperty("EndGamePauseSeconds", "5")) * 1000.0);
+        rounds = Integer.parseInt(properties.getProperty("Rounds", "1"));
+        randomSeed = Long.parseLong(properties.getProperty("RandomSeed", "0"));
+        computerPressesPerSecond = Double.parseDouble(properties.getProperty("ComputerPressesPerSecond", "0"));
+        configReload = Boolean.parseBoolean(properties.getProperty("ConfigReload", "True"));
 
         // ui settings
         String[] names = properties.getProperty("PlayerNames", "Player 1, Player 2").split(",");
@@ -224,8 +400,41 @@ public class Config {
         playerCellWidth = Integer.parseInt(properties.getProperty("PlayerCellWidth", "300"));
         playerCellHeight = Integer.parseInt(properties.getProperty("PlayerCellHeight", "40"));
         fontSize = Integer.parseInt(properties.getProperty("FontSize", "40"));
+        framesPerSecond = Integer.parseInt(properties.getProperty("FramesPerSecond", "60"));
+        cardCacheMegabytes = Integer.parseInt(properties.getProperty("CardCacheMegabytes", "16"));
+        proceduralCards = Boolean.parseBoolean(properties.getProperty("ProceduralCards", "False"));
+
+        // network settings
+        serverPort = Integer.parseInt(properties.getProperty("ServerPort", "-1"));
+        serverHost = properties.getProperty("ServerHost", "127.0.0.1");
+        serverIoThreads = Integer.parseInt(properties.getProperty("ServerIoThreads", "2"));
+        serverBacklog = Integer.parseInt(properties.getProperty("ServerBacklog", "1024"));
+        serverMaxQueuedMessages = Integer.parseInt(properties.getProperty("ServerMaxQueuedMessages", "4096"));
+        spectatorFrameMillis = Long.parseLong(properties.getProperty("SpectatorFrameMillis", "50"));
+
+        // journal settings
+        journalFile = properties.getProperty("JournalFile", "");
+        journalFlushMillis = Long.parseLong(properties.getProperty("JournalFlushMillis", "100"));
+        journalChunkBytes = Integer.parseInt(properties.getProperty("JournalChunkBytes", "1048576"));
+
+        // snapshot settings
+        snapshotFile = properties.getProperty("SnapshotFile", "");
+        snapshotIntervalMillis = (long) (Double.parseDouble(properties.getProperty("SnapshotIntervalSeconds", "10")) * 1000.0);
+        snapshotRestore = Boolean.parseBoolean(properties.getProperty("SnapshotRestore", "False"));
+
+        // watchdog settings
+        watchdogStallMillis = (long) (Double.parseDouble(properties.getProperty("WatchdogStallSeconds", "10")) * 1000.0);
+        watchdogFile = properties.getProperty("WatchdogFile", "./logs/watchdog.txt");
+
+        // diagnostics settings
+        latencyStatistics = Boolean.parseBoolean(properties.getProperty("LatencyStatistics", "True"));
+        jmxMetrics = Boolean.parseBoolean(properties.getProperty("JmxMetrics", "True"));
+        flightRecorderEvents = Boolean.parseBoolean(properties.getProperty("FlightRecorderEvents", "False"));
+        lockProfiling = Boolean.parseBoolean(properties.getProperty("LockProfiling", "False"));
 
         // keyboard input data
+        keyDebounceMillis = Long.parseLong(properties.getProperty("KeyDebounceMillis", "-1"));
+        inputDropOldest = Boolean.parseBoolean(properties.getProperty("InputDropOldest", "False"));
         playerKeys = new int[players][rows * columns];
         for (int i = 0; i < players; i++) {
             String defaultCodes = "";
@@ -0,0 +1,183 @@
+package bguspl.set;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.IllegalFormatException;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+
+/**
+ * Watches the configuration file and reloads it while the game runs. A changed file is parsed and validated into a new
+ * Config, which replaces Env.config as a whole, so the dealer and the players see either all the new values or none
+ * of them from their next decision point on.
+ * <p>
+ * Only the tunable settings (RELOADABLE) can change at runtime. The other settings size the game (the players, the
+ * table, the deck, the threads and the user interface) when it starts, so a change that touches any of them is
+ * rejected as a whole and the current configuration is kept.
+ */
+public class ConfigWatcher implements Runnable {
+
+    /**
+     * The settings that can be changed while the game runs.
+     */
+    public static final Set<String> RELOADABLE = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "LogLevel", "LogFormat", "Hints", "TurnTimeoutSeconds", "TurnTimeoutWarningSeconds", "PointFreezeSeconds",
+            "PenaltyFreezeSeconds", "TableDelaySeconds", "EndGamePauseSeconds", "Rounds")));
+
+    /**
+     * The time to wait after a change for the editor to finish writing the file.
+     */
+    private static final long SETTLE_MILLIS = 100;
+
+    private final Logger logger;
+    private final Env env;
+    private final Path file;
+    private final WatchService watchService;
+
+    /**
+     * The properties of the current configuration.
+     */
+    private Properties applied;
+
+    /**
+     * The class constructor.
+     *
+     * @param logger   - the game logger.
+     * @param env      - the environment whose configuration is replaced.
+     * @param filename - the configuration file (the one the current configuration was read from).
+     * @throws IOException - if the file cannot be read or its directory cannot be watched.
+     */
+    public ConfigWatcher(Logger logger, Env env, String filename) throws IOException {
+        this.logger = logger;
+        this.env = env;
+        this.file = Paths.get(filename).toAbsolutePath();
+        this.applied = read();
+        this.watchService = FileSystems.getDefault().newWatchService();
+        // editors either rewrite the file or replace it, so both are watched
+        file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_CREATE);
+    }
+
+    /**
+     * The watcher thread: reloads the configuration whenever the file changes, until closed.
+     */
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents())
+                    if (file.getFileName().equals(event.context())) changed = true;
+                key.reset();
+                if (!changed) continue;
+
+                Thread.sleep(SETTLE_MILLIS);
+                // the events of the same write
+                WatchKey more;
+                while ((more = watchService.poll()) != null) {
+                    more.pollEvents();
+                    more.reset();
+                }
+                reload();
+            }
+        } catch (ClosedWatchServiceException | InterruptedException ignored) {
+        }
+    }
+
+    public void close() {
+        try {
+            watchService.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private Properties read() throws IOException {
+        Properties properties = new Properties();
+        try (InputStream is = Files.newInputStream(file)) {
+            properties.load(is);
+        }
+        return properties;
+    }
+
+    /**
+     * Reads, validates and publishes the configuration file.
+     */
+    void reload() {
+        Properties properties;
+        try {
+            properties = read();
+        } catch (IOException e) {
+            logger.severe("cannot reload the configuration: " + e.getMessage());
+            return;
+        }
+
+        Set<String> changed = new TreeSet<>();
+        for (String name : properties.stringPropertyNames())
+            if (!Objects.equals(properties.getProperty(name), applied.getProperty(name))) changed.add(name);
+        for (String name : applied.stringPropertyNames())
+            if (!properties.containsKey(name)) changed.add(name);
+        if (changed.isEmpty()) return;
+
+        Set<String> fixed = new TreeSet<>(changed);
+        fixed.removeAll(RELOADABLE);
+        if (!fixed.isEmpty()) {
+            logger.severe("configuration change rejected, these settings cannot change while the game runs: " + fixed);
+            return;
+        }
+
+        String error = validate(properties);
+        if (error != null) {
+            logger.severe("configuration change rejected: " + error);
+            return;
+        }
+
+        // parsed again with the game logger, which applies the log settings
+        env.config = new Config(logger, properties);
+        applied = properties;
+        logger.info("configuration reloaded, changed: " + changed);
+    }
+
+    /**
+     * @return - why the properties cannot be used, or null if they are valid.
+     */
+    private String validate(Properties properties) {
+        // parsing with a detached logger, so a rejected change does not touch the game logger
+        Logger detached = Logger.getAnonymousLogger();
+        detached.setUseParentHandlers(false);
+        Config candidate;
+        try {
+            candidate = new Config(detached, properties);
+        } catch (IllegalArgumentException e) {
+            return "invalid value: " + e.getMessage();
+        }
+        try {
+            String.format(properties.getProperty("LogFormat", "[%1$tT.%1$tL] [%2$-7s] %3$s%n"), new Date(), "INFO", "");
+        } catch (IllegalFormatException e) {
+            return "invalid LogFormat: " + e.getMessage();
+        }
+        Config current = env.config;
+        if (candidate.tableDelayMillis < 0 || candidate.pointFreezeMillis < 0 || candidate.penaltyFreezeMillis < 0
+                || candidate.endGamePauseMillies < 0 || candidate.rounds < 0)
+            return "delays, freeze times and rounds cannot be negative";
+        if (candidate.turnTimeoutMillis > 0 != current.turnTimeoutMillis > 0)
+            return "TurnTimeoutSeconds cannot switch between a countdown and no countdown while the game runs";
+        return null;
+    }
+}
@@ -5,14 +5,58 @@ import java.util.logging.Logger;
 public class Env {
 
     public final Logger logger;
-    public final Config config;
+
+    /**
+     * The game configuration. Replaced as a whole when the configuration file is reloaded (see ConfigWatcher), so a
+     * decision that uses several settings should read it once.
+     */
+    public volatile Config config;
+
     public final UserInterface ui;
     public final Util util;
 
+    /**
+     * The game journal (null if the journal is disabled).
+     */
+    public final GameJournal journal;
+
+    /**
+     * The input latency histograms.
+     */
+    public final InputLatency latency;
+
+    /**
+     * The runtime metrics of the game entities.
+     */
+    public final MetricsRegistry metrics = new MetricsRegistry();
+
+    /**
+     * The profiling events of the game entities (GameEvents.NONE unless enabled).
+     */
+    public final GameEvents events;
+
+    /**
+     * The contention profile of the engine monitors (only recorded if enabled).
+     */
+    public final LockProfiler locks;
+
     public Env(Logger logger, Config config, UserInterface ui, Util util) {
+        this(logger, config, ui, util, null);
+    }
+
+    public Env(Logger logger, Config config, UserInterface ui, Util util, GameJournal journal) {
+        this(logger, config, ui, util, journal, new InputLatency(config));
+    }
+
+    public Env(Logger logger, Config config, UserInterface ui, Util util, GameJournal journal, InputLatency latency) {
         this.logger = logger;
         this.config = config;
         this.ui = ui;
         this.util = util;
+        this.journal = journal;
+        this.latency = latency;
+        latency.register(metrics);
+        this.events = GameEvents.create(logger, config);
+        this.locks = new LockProfiler(config, util);
     }
 }
@@ -0,0 +1,108 @@
+package bguspl.set;
+
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Game events for profiling (see FlightRecorderEvents), so flight recordings show what the game was doing next to the
+ * monitor waits of its threads. The events are disabled unless Config.flightRecorderEvents is set, in which case every
+ * call is an empty interface call and no event class is loaded.
+ * <p>
+ * A timed event is begun by its method and ends when the returned span is committed, on the same thread.
+ */
+public interface GameEvents {
+
+    GameEvents NONE = new GameEvents() {
+    };
+
+    /**
+     * A timed event that has begun.
+     */
+    interface Span {
+
+        Span NONE = () -> {
+        };
+
+        /**
+         * Ends the event and records it (with the time since it began as its duration).
+         */
+        void commit();
+    }
+
+    /**
+     * @return - the events for the configuration (NONE if the events are disabled or the JVM has no flight recorder).
+     */
+    static GameEvents create(Logger logger, Config config) {
+        if (!config.flightRecorderEvents) return NONE;
+        try {
+            return (GameEvents) Class.forName("bguspl.set.FlightRecorderEvents").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            logger.severe("flight recorder events are not available in this JVM: " + e);
+            return NONE;
+        }
+    }
+
+    /**
+     * A player submitted a claim to the dealer (the span ends when the player got the verdict).
+     *
+     * @param player - the player.
+     * @param slots  - the claimed slots.
+     */
+    default Span claim(int player, List<Integer> slots) {
+        return Span.NONE;
+    }
+
+    /**
+     * The dealer checked a claim.
+     *
+     * @param player   - the player.
+     * @param slots    - the claimed slots.
+     * @param accepted - true iff the claim was a legal set.
+     */
+    default void claimVerified(int player, List<Integer> slots, boolean accepted) {
+    }
+
+    /**
+     * A card is placed on the table (the span ends when it was placed).
+     *
+     * @param slot - the slot.
+     * @param card - the card.
+     */
+    default Span placeCard(int slot, int card) {
+        return Span.NONE;
+    }
+
+    /**
+     * A card is removed from the table (the span ends when it was removed).
+     *
+     * @param slot - the slot.
+     * @param card - the card.
+     */
+    default Span removeCard(int slot, int card) {
+        return Span.NONE;
+    }
+
+    /**
+     * The dealer reshuffles the table (the span ends when the new cards were placed).
+     */
+    default Span reshuffle() {
+        return Span.NONE;
+    }
+
+    /**
+     * A player is frozen (the span ends when the freeze ended).
+     *
+     * @param player  - the player.
+     * @param millies - the freeze time.
+     */
+    default Span freeze(int player, long millies) {
+        return Span.NONE;
+    }
+
+    /**
+     * The dealer thread sleeps (the span ends when it woke up).
+     */
+    default Span dealerSleep() {
+        return Span.NONE;
+    }
+}
@@ -0,0 +1,327 @@
+package bguspl.set;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * A compact binary, append-only journal of the game events, written through memory-mapped chunks of the journal file.
+ * Appending a record is a few stores into the mapped memory; a background thread forces the written records to disk
+ * once per flush interval (group commit). The ui events are recorded by using the journal as a user interface, and the
+ * dealer records the claims, verdicts and reshuffles. See JournalReplay for reading it back.
+ * <p>
+ * File layout: the header (int MAGIC, short VERSION, short featureCount, short featureSize, short rows, short columns,
+ * short players, long start time in epoch millies) followed by records. Each record is a byte type, an int time in
+ * millies since the start and the payload of the type (see the constants). A zero type marks the end of the records.
+ */
+public class GameJournal implements UserInterface, Runnable, Closeable {
+
+    public static final int MAGIC = 0x5345544A; // "SETJ"
+    public static final short VERSION = 1;
+    public static final int HEADER_SIZE = 4 + 2 * 6 + 8;
+
+    /**
+     * The end of the records.
+     */
+    public static final byte END = 0;
+
+    /**
+     * short slot, int card.
+     */
+    public static final byte PLACE_CARD = 1;
+
+    /**
+     * short slot.
+     */
+    public static final byte REMOVE_CARD = 2;
+
+    /**
+     * short player, short slot.
+     */
+    public static final byte PLACE_TOKEN = 3;
+
+    /**
+     * short player, short slot.
+     */
+    public static final byte REMOVE_TOKEN = 4;
+
+    /**
+     * short slot (-1 for all the slots).
+     */
+    public static final byte REMOVE_TOKENS = 5;
+
+    /**
+     * short player, byte count, followed by count ints of card ids.
+     */
+    public static final byte CLAIM = 6;
+
+    /**
+     * short player, byte accepted (1 iff the claim was a legal set).
+     */
+    public static final byte VERDICT = 7;
+
+    /**
+     * short player, long millies.
+     */
+    public static final byte FREEZE = 8;
+
+    /**
+     * No payload.
+     */
+    public static final byte RESHUFFLE = 9;
+
+    /**
+     * short player, int score.
+     */
+    public static final byte SCORE = 10;
+
+    /**
+     * long millies, byte warn.
+     */
+    public static final byte COUNTDOWN = 11;
+
+    /**
+     * short count, followed by count shorts of player ids.
+     */
+    public static final byte WINNERS = 12;
+
+    private final Logger logger;
+    private final Config config;
+    private final FileChannel channel;
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * The chunk currently appended to, and the file offset where it starts (guarded by this).
+     */
+    private MappedByteBuffer chunk;
+    private long chunkOffset;
+
+    /**
+     * Chunks that are full but were not forced to disk yet (guarded by this).
+     */
+    private final List<MappedByteBuffer> retired = new ArrayList<>();
+
+    /**
+     * True iff records were appended since the last flush (guarded by this).
+     */
+    private boolean dirty;
+
+    /**
+     * The last countdown second that was recorded (countdown updates are only recorded when the displayed value changes).
+     */
+    private long lastCountdownSecond = -1;
+
+    private volatile boolean terminate;
+
+    /**
+     * The class constructor. Creates (or truncates) the journal file and writes the header.
+     *
+     * @param logger   - the logger.
+     * @param config   - the game configuration.
+     * @param filename - the journal file.
+     */
+    public GameJournal(Logger logger, Config config, String filename) throws IOException {
+        this.logger = logger;
+        this.config = config;
+        channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        chunk = channel.map(FileChannel.MapMode.READ_WRITE, 0, config.journalChunkBytes);
+        chunk.putInt(MAGIC).putShort(VERSION)
+                .putShort((short) config.featureCount).putShort((short) config.featureSize)
+                .putShort((short) config.rows).putShort((short) config.columns)
+                .putShort((short) config.players).putLong(System.currentTimeMillis());
+        dirty = true;
+    }
+
+    /**
+     * The flusher thread: forces the appended records to disk once per flush interval.
+     */
+    @Override
+    public void run() {
+        while (!terminate) {
+            try {
+                Thread.sleep(config.journalFlushMillis);
+            } catch (InterruptedException ignored) {
+            }
+            flush();
+        }
+    }
+
+    /**
+     * Forces all the records appended so far to disk. The forcing itself is done outside the lock, so the game threads
+     * keep appending while the previous group is written.
+     */
+    public void flush() {
+        List<MappedByteBuffer> toForce;
+        synchronized (this) {
+            if (!dirty || chunk == null) return;
+            dirty = false;
+            toForce = new ArrayList<>(retired);
+            retired.clear();
+            toForce.add(chunk);
+        }
+        for (MappedByteBuffer buffer : toForce)
+            buffer.force();
+    }
+
+    @Override
+    public void close() {
+        terminate = true;
+        flush();
+        synchronized (this) {
+            if (chunk == null) return;
+            try {
+                // cut the unused tail of the last chunk
+                channel.truncate(chunkOffset + chunk.position());
+                channel.close();
+            } catch (IOException e) {
+                logger.warning("error closing the journal: " + e.getMessage());
+            }
+            chunk = null;
+        }
+    }
+
+    /**
+     * Starts a record, mapping a new chunk if the current one cannot hold it (a chunk larger than JournalChunkBytes if
+     * the record is, e.g. the winners of a game with many players).
+     *
+     * @param type    - the record type.
+     * @param payload - the size of the record payload, in bytes.
+     * @return - the chunk to write the record payload to, or null if the journal is closed or failed.
+     */
+    private ByteBuffer begin(byte type, int payload) {
+        if (chunk == null) return null;
+        int size = 1 + 4 + payload + 1; // and the zero END that follows the record until the next one is appended
+        if (chunk.remaining() < size) {
+            try {
+                retired.add(chunk);
+                chunkOffset += chunk.position();
+                chunk = channel.map(FileChannel.MapMode.READ_WRITE, chunkOffset,
+                        Math.max(config.journalChunkBytes, size));
+            } catch (IOException e) {
+                logger.severe("journal stopped, cannot map the next chunk: " + e.getMessage());
+                chunk = null;
+                return null;
+            }
+        }
+        dirty = true;
+        return chunk.put(type).putInt((int) ((System.nanoTime() - startNanos) / 1000000L));
+    }
+
+    /**
+     * Records a claim of a player, before it is checked.
+     *
+     * @param player - the player id.
+     * @param cards  - the claimed card ids.
+     */
+    public synchronized void claim(int player, int[] cards) {
+        ByteBuffer out = begin(CLAIM, 2 + 1 + 4 * cards.length);
+        if (out == null) return;
+        out.putShort((short) player).put((byte) cards.length);
+        for (int card : cards) out.putInt(card);
+    }
+
+    /**
+     * Records the dealer's verdict on the last claim of a player.
+     *
+     * @param player   - the player id.
+     * @param accepted - true iff the claim was a legal set.
+     */
+    public synchronized void verdict(int player, boolean accepted) {
+        ByteBuffer out = begin(VERDICT, 2 + 1);
+        if (out != null) out.putShort((short) player).put((byte) (accepted ? 1 : 0));
+    }
+
+    /**
+     * Records that the dealer reshuffles the table due to a turn timeout.
+     */
+    public synchronized void reshuffle() {
+        begin(RESHUFFLE, 0);
+    }
+
+    @Override
+    public synchronized void placeCard(int card, int slot) {
+        ByteBuffer out = begin(PLACE_CARD, 2 + 4);
+        if (out != null) out.putShort((short) slot).putInt(card);
+    }
+
+    @Override
+    public synchronized void removeCard(int slot) {
+        ByteBuffer out = begin(REMOVE_CARD, 2);
+        if (out != null) out.putShort((short) slot);
+    }
+
+    @Override
+    public synchronized void placeToken(int player, int slot) {
+        ByteBuffer out = begin(PLACE_TOKEN, 2 + 2);
+        if (out != null) out.putShort((short) player).putShort((short) slot);
+    }
+
+    @Override
+    public synchronized void removeTokens() {
+        removeTokens(-1);
+    }
+
+    @Override
+    public synchronized void removeTokens(int slot) {
+        ByteBuffer out = begin(REMOVE_TOKENS, 2);
+        if (out != null) out.putShort((short) slot);
+    }
+
+    @Override
+    public synchronized void removeToken(int player, int slot) {
+        ByteBuffer out = begin(REMOVE_TOKEN, 2 + 2);
+        if (out != null) out.putShort((short) player).putShort((short) slot);
+    }
+
+    @Override
+    public synchronized void setCountdown(long millies, boolean warn) {
+        long second = millies / 1000L;
+        if (!warn && second == lastCountdownSecond) return;
+        lastCountdownSecond = second;
+        ByteBuffer out = begin(COUNTDOWN, 8 + 1);
+        if (out != null) out.putLong(millies).put((byte) (warn ? 1 : 0));
+    }
+
+    @Override
+    public void setElapsed(long millies) {
+        // not part of the game state
+    }
+
+    @Override
+    public synchronized void setFreeze(int player, long millies) {
+        ByteBuffer out = begin(FREEZE, 2 + 8);
+        if (out != null) out.putShort((short) player).putLong(millies);
+    }
+
+    @Override
+    public synchronized void setScore(int player, int score) {
+        ByteBuffer out = begin(SCORE, 2 + 4);
+        if (out != null) out.putShort((short) player).putInt(score);
+    }
+
+    @Override
+    public synchronized void announceWinner(int[] players) {
+        ByteBuffer out = begin(WINNERS, 2 + 2 * players.length);
+        if (out == null) return;
+        out.putShort((short) players.length);
+        for (int player : players) out.putShort((short) player);
+    }
+
+    @Override
+    public void reset() {
+        // the cleared table and scores are recorded as regular updates
+    }
+
+    @Override
+    public void dispose() {
+        // the journal is closed by its owner
+    }
+}
@@ -0,0 +1,394 @@
+package bguspl.set;
+
+import bguspl.set.ex.Player;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Logger;
+
+/**
+ * A TCP server that lets remote clients join the game (see the Protocol class for the messages).
+ * One acceptor thread hands new connections to a few selector (reactor) threads, each serving many connections.
+ * Table updates are encoded once and the same read-only buffer is shared by all the connections.
+ */
+public class GameServer implements Closeable {
+
+    /**
+     * The player id of a connection that did not join yet.
+     */
+    private static final int NOT_JOINED = Integer.MIN_VALUE;
+
+    /**
+     * The maximum number of buffers handed to a single gathering write.
+     */
+    private static final int MAX_GATHER = 64;
+
+    private final Logger logger;
+    private final Config config;
+    private final Player[] players;
+    private final UserInterfaceNetwork ui;
+    private final UserInterfaceSpectator spectators;
+    private final ServerSocketChannel serverChannel;
+    private final Reactor[] reactors;
+    private final List<ThreadLogger> threads = new ArrayList<>();
+
+    /**
+     * The connection that joined as each player (null if none), shared by the reactors so an id has one connection.
+     */
+    private final AtomicReferenceArray<Connection> joined;
+
+    /**
+     * True iff the server should be terminated.
+     */
+    private volatile boolean terminate;
+
+    /**
+     * The class constructor. Binds the server socket (the server starts accepting connections once started).
+     *
+     * @param logger  - the logger.
+     * @param config  - the game configuration.
+     * @param players - the players array (may be filled after the server is created, but before it is started).
+     */
+    public GameServer(Logger logger, Config config, Player[] players) throws IOException {
+        this.logger = logger;
+        this.config = config;
+        this.players = players;
+        this.joined = new AtomicReferenceArray<>(players.length);
+        this.ui = new UserInterfaceNetwork(config, this);
+        this.spectators = config.spectatorFrameMillis > 0 ? new UserInterfaceSpectator(logger, config, this::broadcast) : null;
+
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(config.serverHost, config.serverPort), config.serverBacklog);
+
+        reactors = new Reactor[Math.max(1, config.serverIoThreads)];
+        for (int i = 0; i < reactors.length; i++)
+            reactors[i] = new Reactor(Selector.open());
+    }
+
+    /**
+     * @return - the user interface that broadcasts the game updates to the remote clients and spectators.
+     */
+    public UserInterface userInterface() {
+        return UserInterfaceMulticast.of(ui, spectators);
+    }
+
+    /**
+     * @return - the local port the server is listening on.
+     */
+    public int port() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Starts the acceptor and the reactor threads.
+     */
+    public void start() {
+        for (int i = 0; i < reactors.length; i++)
+            threads.add(new ThreadLogger(reactors[i], "server-io-" + i, logger));
+        threads.add(new ThreadLogger(this::acceptLoop, "server-acceptor", logger));
+        if (spectators != null) threads.add(new ThreadLogger(spectators, "spectator-feed", logger));
+        for (ThreadLogger thread : threads) {
+            thread.setDaemon(true);
+            thread.startWithLog();
+        }
+        logger.info("game server listening on " + config.serverHost + ":" + port());
+    }
+
+    /**
+     * Queues a message to be sent to all the joined connections (spectator frames only go to spectators, and other
+     * table updates only go to players and observers).
+     *
+     * @param message - the message (in read mode, must not be modified afterwards).
+     */
+    void broadcast(ByteBuffer message) {
+        for (Reactor reactor : reactors)
+            reactor.broadcast(message);
+    }
+
+    @Override
+    public void close() {
+        terminate = true;
+        if (spectators != null) spectators.terminate();
+        try {
+            serverChannel.close();
+        } catch (IOException ignored) {
+        }
+        for (Reactor reactor : reactors)
+            reactor.selector.wakeup();
+        for (ThreadLogger thread : threads) {
+            try {
+                thread.joinWithLog();
+            } catch (InterruptedException ignored) {
+            }
+        }
+    }
+
+    private void acceptLoop() {
+        int next = 0;
+        while (!terminate) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                reactors[next].register(channel);
+                next = (next + 1) % reactors.length;
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                logger.warning("error accepting connection: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * A remote client connection (only accessed by the thread of its reactor).
+     */
+    private static class Connection {
+
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final ByteBuffer in = ByteBuffer.allocate(1024);
+        private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+        private int player = NOT_JOINED;
+        private boolean spectator;
+
+        private Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+    }
+
+    /**
+     * A selector thread serving a subset of the connections.
+     */
+    private class Reactor implements Runnable {
+
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<SocketChannel> registrations = new ConcurrentLinkedQueue<>();
+        private final ConcurrentLinkedQueue<ByteBuffer> broadcasts = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean wakeupPending = new AtomicBoolean();
+        private final List<Connection> connections = new ArrayList<>();
+        private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+
+        private Reactor(Selector selector) {
+            this.selector = selector;
+        }
+
+        private void register(SocketChannel channel) {
+            registrations.add(channel);
+            wakeup();
+        }
+
+        private void broadcast(ByteBuffer message) {
+            broadcasts.add(message);
+            wakeup();
+        }
+
+        private void wakeup() {
+            // several updates in a row cost a single selector wakeup
+            if (wakeupPending.compareAndSet(false, true))
+                selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (!terminate) {
+                try {
+                    selector.select();
+                } catch (IOException e) {
+                    logger.severe("server selector failed: " + e.getMessage());
+                    break;
+                }
+                wakeupPending.set(false);
+                registerPending();
+                drainBroadcasts();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) read(connection);
+                        if (key.isValid() && key.isWritable()) write(connection);
+                    } catch (IOException e) {
+                        close(connection);
+                    }
+                }
+            }
+            for (Connection connection : new ArrayList<>(connections))
+                close(connection);
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        private void registerPending() {
+            SocketChannel channel;
+            while ((channel = registrations.poll()) != null) {
+                try {
+                    SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                    Connection connection = new Connection(channel, key);
+                    key.attach(connection);
+                    connections.add(connection);
+                } catch (ClosedChannelException ignored) {
+                }
+            }
+        }
+
+        private void drainBroadcasts() {
+            ByteBuffer message;
+            while ((message = broadcasts.poll()) != null) {
+                byte opcode = message.get(0);
+                boolean toSpectators = opcode == Protocol.FRAME || opcode == Protocol.WINNERS;
+                boolean toPlayers = opcode != Protocol.FRAME;
+                Iterator<Connection> it = connections.iterator();
+                while (it.hasNext()) {
+                    Connection connection = it.next();
+                    if (connection.player == NOT_JOINED || !(connection.spectator ? toSpectators : toPlayers)) continue;
+                    if (!send(connection, message.duplicate())) {
+                        logger.warning("dropping slow connection " + connection.channel);
+                        it.remove();
+                        closeChannel(connection);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Queues a message on a connection.
+         *
+         * @return - false iff the connection has too many queued messages and should be dropped.
+         */
+        private boolean send(Connection connection, ByteBuffer message) {
+            if (connection.out.size() >= config.serverMaxQueuedMessages) return false;
+            if (connection.out.isEmpty())
+                connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            connection.out.add(message);
+            return true;
+        }
+
+        private void read(Connection connection) throws IOException {
+            if (connection.channel.read(connection.in) < 0) {
+                close(connection);
+                return;
+            }
+            ByteBuffer in = connection.in;
+            in.flip();
+            int length;
+            while ((length = Protocol.clientMessageLength(in, config.featureSize)) > 0 && length <= in.remaining()) {
+                int end = in.position() + length;
+                handle(connection, in);
+                if (!connection.key.isValid()) return; // closed while handling the message
+                in.position(end);
+            }
+            in.compact();
+            // a message that cannot fit would keep the read buffer full (and the reactor spinning) forever
+            if (length < 0 || length > in.capacity()) {
+                logger.warning("protocol error from " + connection.channel);
+                close(connection);
+            }
+        }
+
+        private void handle(Connection connection, ByteBuffer in) {
+            byte opcode = in.get();
+            switch (opcode) {
+                case Protocol.JOIN:
+                    join(connection, in.getShort());
+                    break;
+                case Protocol.SPECTATE:
+                    spectate(connection);
+                    break;
+                case Protocol.TOGGLE:
+                    press(connection, in.getShort());
+                    break;
+                case Protocol.CLAIM:
+                    int count = in.get();
+                    for (int i = 0; i < count; i++)
+                        press(connection, in.getShort());
+                    break;
+                default:
+                    // not reached, clientMessageLength rejects the other opcodes
+            }
+        }
+
+        private void join(Connection connection, int player) {
+            if (connection.player != NOT_JOINED) return;
+            // only the computer players can be driven remotely, and each by a single connection
+            boolean remote = player >= config.humanPlayers && player < players.length;
+            connection.player = remote && joined.compareAndSet(player, null, connection) ? player : -1;
+            if (!send(connection, Protocol.joined(connection.player)) || !send(connection, ui.snapshot())) {
+                logger.warning("dropping connection " + connection.channel + ", the snapshot does not fit its queue");
+                close(connection);
+            }
+        }
+
+        private void spectate(Connection connection) {
+            if (connection.player != NOT_JOINED) return;
+            if (spectators == null) {
+                join(connection, -1); // no spectator feed, fall back to a plain observer
+                return;
+            }
+            connection.player = -1;
+            connection.spectator = true;
+            send(connection, spectators.snapshot());
+        }
+
+        private void press(Connection connection, int slot) {
+            if (connection.player < 0 || slot < 0 || slot >= config.tableSize) return;
+            Player player = players[connection.player];
+            if (player != null) player.offerKeyPress(slot);
+        }
+
+        private void write(Connection connection) throws IOException {
+            ArrayDeque<ByteBuffer> out = connection.out;
+            while (!out.isEmpty()) {
+                int count = 0;
+                long requested = 0;
+                for (ByteBuffer buffer : out) {
+                    if (count == MAX_GATHER) break;
+                    gather[count++] = buffer;
+                    requested += buffer.remaining();
+                }
+                long written = connection.channel.write(gather, 0, count);
+                Arrays.fill(gather, 0, count, null);
+                while (!out.isEmpty() && !out.peek().hasRemaining())
+                    out.poll();
+                if (written < requested)
+                    break; // the socket buffer is full, wait for the next write readiness
+            }
+            if (out.isEmpty())
+                connection.key.interestOps(SelectionKey.OP_READ);
+        }
+
+        private void close(Connection connection) {
+            connections.remove(connection);
+            closeChannel(connection);
+        }
+
+        private void closeChannel(Connection connection) {
+            if (connection.player >= 0) joined.compareAndSet(connection.player, connection, null);
+            connection.key.cancel();
+            try {
+                connection.channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package bguspl.set;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Latency histograms of the stages a key press goes through, for all the players together and for each player.
+ * The stages are timed with System.nanoTime by the threads that complete them (see Stage). The histograms can be read
+ * at any time while the game runs (the histogram of each stage is also published as input.stage on the metrics
+ * MBean, see register), and the report is logged at the end of each game.
+ */
+public class InputLatency {
+
+    public enum Stage {
+        QUEUED("key press -> dequeued by the player"),
+        TOKEN("dequeued -> token placed"),
+        INPUT("key press -> token placed"),
+        VERDICT("claim submitted -> dealer verdict"),
+        UI("ui update -> applied to the window");
+
+        public final String description;
+
+        Stage(String description) {
+            this.description = description;
+        }
+    }
+
+    private final boolean enabled;
+    private final int players;
+    private final LatencyHistogram[] stages = new LatencyHistogram[Stage.values().length];
+
+    /**
+     * The histograms of each player and stage (at player * stages + stage), created on the first record.
+     */
+    private final AtomicReferenceArray<LatencyHistogram> playerStages;
+
+    public InputLatency(Config config) {
+        enabled = config.latencyStatistics;
+        players = config.players;
+        for (int i = 0; i < stages.length; i++) stages[i] = new LatencyHistogram();
+        playerStages = new AtomicReferenceArray<>(enabled ? players * stages.length : 0);
+    }
+
+    /**
+     * @return - the current time for timing a stage (0 if the statistics are disabled).
+     */
+    public long now() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the latency of a stage that started at the given time and ends now.
+     *
+     * @param stage   - the stage.
+     * @param player  - the player id, or -1 for stages that do not belong to a single player.
+     * @param started - the start of the stage (see now), 0 if it is unknown.
+     */
+    public void record(Stage stage, int player, long started) {
+        if (!enabled || started == 0) return;
+        long nanos = System.nanoTime() - started;
+        stages[stage.ordinal()].record(nanos);
+        if (player >= 0 && player < players) playerHistogram(stage, player, true).record(nanos);
+    }
+
+    /**
+     * Publishes the histogram of each stage (of all the players together) in the metrics, as input.queued,
+     * input.token and so on (the histograms of each player are only in the report).
+     *
+     * @param metrics - the metrics registry.
+     */
+    public void register(MetricsRegistry metrics) {
+        if (!enabled) return;
+        for (Stage stage : Stage.values())
+            metrics.histogram("input." + stage.name().toLowerCase(Locale.ROOT), stages[stage.ordinal()]);
+    }
+
+    public LatencyHistogram histogram(Stage stage) {
+        return stages[stage.ordinal()];
+    }
+
+    /**
+     * @return - the histogram of the player's stage, or null if nothing was recorded for it.
+     */
+    public LatencyHistogram histogram(Stage stage, int player) {
+        return playerHistogram(stage, player, false);
+    }
+
+    private LatencyHistogram playerHistogram(Stage stage, int player, boolean create) {
+        if (!enabled) return null;
+        int index = player * stages.length + stage.ordinal();
+        LatencyHistogram histogram = playerStages.get(index);
+        if (histogram == null && create) {
+            playerStages.compareAndSet(index, null, new LatencyHistogram());
+            histogram = playerStages.get(index);
+        }
+        return histogram;
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : stages) histogram.reset();
+        for (int i = 0; i < playerStages.length(); i++) playerStages.set(i, null);
+    }
+
+    /**
+     * @return - a multi line report of all the stages, and of each stage of each player.
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder("input latency:");
+        for (Stage stage : Stage.values()) {
+            report.append(System.lineSeparator()).append(String.format("  %-7s %-38s %s",
+                    stage, stage.description, stages[stage.ordinal()]));
+            for (int player = 0; player < players; player++) {
+                LatencyHistogram histogram = histogram(stage, player);
+                if (histogram != null)
+                    report.append(System.lineSeparator()).append(String.format("    player %-3d %s", player, histogram));
+            }
+        }
+        return report.toString();
+    }
+}
@@ -5,22 +5,56 @@ import bguspl.set.ex.Player;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.util.Arrays;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * This class handles the input from the keyboard, translates it to table grid slots and dispatches accordingly.
+ * <p>
+ * Key presses run on the event dispatch thread, so they are handed to the players without ever waiting: a press that
+ * finds the player's queue full is dropped (or replaces the oldest queued press, see Config.inputDropOldest), and key
+ * auto-repeat is filtered according to Config.keyDebounceMillis.
  */
 class InputManager extends KeyAdapter {
 
     private static final int MAX_KEY_CODE = 255;
+
+    /**
+     * A press of a key this soon after its release is an auto-repeat (on some platforms auto-repeat generates
+     * release/press pairs rather than repeated presses).
+     */
+    private static final long AUTO_REPEAT_GAP_MILLIS = 5;
+
     private final Player[] players;
+    private final Config config;
     int[] keyMap = new int[MAX_KEY_CODE + 1];
     int[] keyToSlot = new int[MAX_KEY_CODE + 1];
     private final Logger logger;
 
+    /**
+     * The state of each key: true iff it is held down, the time it was last released and the time of the last press
+     * that was dispatched.
+     */
+    private boolean[] held = new boolean[MAX_KEY_CODE + 1];
+    private long[] releasedAt = new long[MAX_KEY_CODE + 1];
+    private long[] dispatchedAt = new long[MAX_KEY_CODE + 1];
+
+    /**
+     * The input counters of each player (only updated on the event dispatch thread).
+     */
+    private final long[] pressed;
+    private final long[] queued;
+    private final long[] repeatsDropped;
+    private final long[] rejected;
+
     public InputManager(Logger logger, Config config, Player[] players) {
         this.players = players;
         this.logger = logger;
+        this.config = config;
+        pressed = new long[config.players];
+        queued = new long[config.players];
+        repeatsDropped = new long[config.players];
+        rejected = new long[config.players];
 
         // initialize the keys
         for (int player = 0; player < config.players; ++player)
@@ -35,16 +69,52 @@ class InputManager extends KeyAdapter {
     private void reallocArrays(int keyCode) {
         keyMap = Arrays.copyOf(keyMap, keyCode + 1);
         keyToSlot = Arrays.copyOf(keyToSlot, keyCode + 1);
+        held = Arrays.copyOf(held, keyCode + 1);
+        releasedAt = Arrays.copyOf(releasedAt, keyCode + 1);
+        dispatchedAt = Arrays.copyOf(dispatchedAt, keyCode + 1);
     }
 
     @Override
     public void keyPressed(KeyEvent e) {
         // dispatch the key event to the player according to the key map
         int keyCode = e.getKeyCode();
+        if (keyCode >= keyMap.length) return;
         int player = keyMap[keyCode] - 1;
-        if (player >= 0){
-            logger.severe("key " + keyCode + " was pressed by player " + (player + 1));
-            players[player].keyPressed(keyToSlot[keyCode]);
+        if (player >= 0) {
+            pressed[player]++;
+            boolean repeat = held[keyCode] || e.getWhen() - releasedAt[keyCode] <= AUTO_REPEAT_GAP_MILLIS;
+            held[keyCode] = true;
+            if (repeat && (config.keyDebounceMillis < 0
+                    || e.getWhen() - dispatchedAt[keyCode] < config.keyDebounceMillis)) {
+                repeatsDropped[player]++;
+                return;
+            }
+            dispatchedAt[keyCode] = e.getWhen();
+            logger.log(Level.SEVERE, "key {0,number,#} was pressed by player {1,number,#}", new Object[]{keyCode, player + 1});
+            if (players[player].offerKeyPress(keyToSlot[keyCode], config.inputDropOldest)) queued[player]++;
+            else rejected[player]++;
         }
     }
+
+    @Override
+    public void keyReleased(KeyEvent e) {
+        int keyCode = e.getKeyCode();
+        if (keyCode >= keyMap.length) return;
+        held[keyCode] = false;
+        releasedAt[keyCode] = e.getWhen();
+    }
+
+    /**
+     * @return - the input counters of each player (call on the event dispatch thread).
+     */
+    String summary() {
+        StringBuilder summary = new StringBuilder("keyboard input");
+        for (int player = 0; player < pressed.length; player++)
+            if (pressed[player] > 0)
+                summary.append(", ").append(config.playerNames[player]).append(": pressed ").append(pressed[player])
+                        .append(" queued ").append(queued[player])
+                        .append(" repeats dropped ").append(repeatsDropped[player])
+                        .append(" rejected ").append(rejected[player]);
+        return summary.toString();
+    }
 }
@@ -0,0 +1,239 @@
+package bguspl.set;
+
+import bguspl.set.ex.Player;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * Replays a game journal (see GameJournal) into any user interface, at N times the original speed.
+ * The table and the scores are rebuilt from the records as they are replayed, so the replayed game can be checked
+ * against the original one.
+ * <p>
+ * Usage: JournalReplay journalFile [speed] (1 is the original speed, 0 replays as fast as possible).
+ */
+public class JournalReplay {
+
+    private final ByteBuffer journal;
+
+    /**
+     * The header fields.
+     */
+    public final int featureCount;
+    public final int featureSize;
+    public final int rows;
+    public final int columns;
+    public final int players;
+    public final long startMillis;
+
+    /**
+     * The state rebuilt from the replayed records.
+     */
+    private final int[] slotToCard;
+    private final int[] scores;
+    private int claims;
+    private int accepted;
+    private int rejected;
+    private int reshuffles;
+    private int[] winners = new int[0];
+
+    /**
+     * The class constructor. Maps the journal file and reads its header.
+     *
+     * @param filename - the journal file.
+     */
+    public JournalReplay(String filename) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            journal = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (journal.remaining() < GameJournal.HEADER_SIZE || journal.getInt() != GameJournal.MAGIC)
+            throw new IOException(filename + " is not a game journal");
+        short version = journal.getShort();
+        if (version != GameJournal.VERSION)
+            throw new IOException("unsupported journal version " + version);
+        featureCount = journal.getShort();
+        featureSize = journal.getShort();
+        rows = journal.getShort();
+        columns = journal.getShort();
+        players = journal.getShort();
+        startMillis = journal.getLong();
+
+        slotToCard = new int[rows * columns];
+        Arrays.fill(slotToCard, -1);
+        scores = new int[players];
+    }
+
+    /**
+     * @return - configuration properties matching the recorded game (with no keyboard input).
+     */
+    public Properties properties() {
+        Properties properties = new Properties();
+        properties.setProperty("FeatureCount", Integer.toString(featureCount));
+        properties.setProperty("FeatureSize", Integer.toString(featureSize));
+        properties.setProperty("Rows", Integer.toString(rows));
+        properties.setProperty("Columns", Integer.toString(columns));
+        properties.setProperty("HumanPlayers", "0");
+        properties.setProperty("ComputerPlayers", Integer.toString(players));
+        properties.setProperty("TurnTimeoutSeconds", "1");
+        for (int i = 0; i < players; i++)
+            properties.setProperty("PlayerKeys" + (i + 1), "");
+        return properties;
+    }
+
+    /**
+     * Replays all the records into the user interface.
+     *
+     * @param ui    - the user interface to drive.
+     * @param speed - the replay speed (2 is twice as fast as the original game, 0 or less is as fast as possible).
+     */
+    public void replay(UserInterface ui, double speed) throws InterruptedException {
+        long replayStart = System.currentTimeMillis();
+        ByteBuffer in = journal.duplicate();
+        in.position(GameJournal.HEADER_SIZE);
+        // a record is at least its type and time (RESHUFFLE has no payload), apply checks the payload
+        while (in.remaining() >= 5) {
+            byte type = in.get();
+            if (type == GameJournal.END) break;
+            int time = in.getInt();
+            if (speed > 0) {
+                long delay = replayStart + (long) (time / speed) - System.currentTimeMillis();
+                if (delay > 0) Thread.sleep(delay);
+            }
+            apply(ui, type, in);
+        }
+    }
+
+    private void apply(UserInterface ui, byte type, ByteBuffer in) {
+        int player, slot;
+        switch (type) {
+            case GameJournal.PLACE_CARD:
+                payload(in, 2 + 4);
+                slot = in.getShort();
+                slotToCard[slot] = in.getInt();
+                ui.placeCard(slotToCard[slot], slot);
+                break;
+            case GameJournal.REMOVE_CARD:
+                payload(in, 2);
+                slot = in.getShort();
+                slotToCard[slot] = -1;
+                ui.removeCard(slot);
+                break;
+            case GameJournal.PLACE_TOKEN:
+                payload(in, 2 + 2);
+                player = in.getShort();
+                ui.placeToken(player, in.getShort());
+                break;
+            case GameJournal.REMOVE_TOKEN:
+                payload(in, 2 + 2);
+                player = in.getShort();
+                ui.removeToken(player, in.getShort());
+                break;
+            case GameJournal.REMOVE_TOKENS:
+                payload(in, 2);
+                slot = in.getShort();
+                if (slot < 0) ui.removeTokens();
+                else ui.removeTokens(slot);
+                break;
+            case GameJournal.CLAIM:
+                payload(in, 2 + 1);
+                in.getShort();
+                int cards = in.get();
+                payload(in, 4 * cards);
+                in.position(in.position() + 4 * cards);
+                claims++;
+                break;
+            case GameJournal.VERDICT:
+                payload(in, 2 + 1);
+                in.getShort();
+                if (in.get() == 1) accepted++;
+                else rejected++;
+                break;
+            case GameJournal.FREEZE:
+                payload(in, 2 + 8);
+                player = in.getShort();
+                ui.setFreeze(player, in.getLong());
+                break;
+            case GameJournal.RESHUFFLE:
+                reshuffles++;
+                break;
+            case GameJournal.SCORE:
+                payload(in, 2 + 4);
+                player = in.getShort();
+                scores[player] = in.getInt();
+                ui.setScore(player, scores[player]);
+                break;
+            case GameJournal.COUNTDOWN:
+                payload(in, 8 + 1);
+                long millies = in.getLong();
+                ui.setCountdown(millies, in.get() == 1);
+                break;
+            case GameJournal.WINNERS:
+                payload(in, 2);
+                winners = new int[in.getShort()];
+                payload(in, 2 * winners.length);
+                for (int i = 0; i < winners.length; i++) winners[i] = in.getShort();
+                ui.announceWinner(winners);
+                break;
+            default:
+                throw new IllegalStateException("corrupt journal: unknown record type " + type + " at " + (in.position() - 5));
+        }
+    }
+
+    /**
+     * Checks that the rest of a record's payload is in the journal.
+     *
+     * @param bytes - the length of the rest of the payload.
+     */
+    private static void payload(ByteBuffer in, int bytes) {
+        if (bytes < 0 || in.remaining() < bytes)
+            throw new IllegalStateException("corrupt journal: truncated record at " + in.position());
+    }
+
+    public int[] slotToCard() {
+        return slotToCard.clone();
+    }
+
+    public int[] scores() {
+        return scores.clone();
+    }
+
+    /**
+     * @return - a one line summary of the replayed game.
+     */
+    public String summary() {
+        return "claims: " + claims + " accepted: " + accepted + " rejected: " + rejected + " reshuffles: " + reshuffles
+                + " scores: " + Arrays.toString(scores) + " winners: " + Arrays.toString(winners);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.out.println("usage: JournalReplay journalFile [speed]");
+            return;
+        }
+        double speed = args.length > 1 ? Double.parseDouble(args[1]) : 1.0;
+        JournalReplay replay = new JournalReplay(args[0]);
+
+        Logger logger = Logger.getLogger("JournalReplay");
+        Config config = new Config(logger, replay.properties());
+        UserInterface swing = null;
+        try {
+            swing = new UserInterfaceSwing(logger, config, new Player[config.players]);
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            logger.severe("error creating swing user interface: " + e.getMessage() + ", replaying to the log only");
+        }
+        UserInterface ui = new UserInterfaceDecorator(logger, new UtilImpl(config), swing);
+
+        replay.replay(ui, speed);
+        System.out.println(replay.summary());
+        if (swing != null) {
+            Thread.sleep(config.endGamePauseMillies);
+            ui.dispose();
+        }
+    }
+}
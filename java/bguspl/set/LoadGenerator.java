@@ -0,0 +1,186 @@
+package bguspl.set;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A load generator for the game server. Opens many connections from a single selector thread, joins them to the game
+ * and sends random token toggles at a fixed total rate, then prints a summary.
+ * <p>
+ * Usage: LoadGenerator [host] [port] [connections] [players] [togglesPerSecond] [seconds] [tableSize]
+ * (connection i joins as player i % players, as an observer if players is 0 or as a spectator if it is negative; the
+ * server grants each computer player to its first connection only, so the other connections join as observers and
+ * the toggles are sent by the connections that joined as a player).
+ */
+public class LoadGenerator {
+
+    private static class Client {
+
+        private final SocketChannel channel;
+        private final ByteBuffer in = ByteBuffer.allocate(8192);
+        private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+        private final int player;
+        private final long connectStart = System.nanoTime();
+        private boolean joined;
+
+        private Client(SocketChannel channel, int player) {
+            this.channel = channel;
+            this.player = player;
+        }
+    }
+
+    private final String host;
+    private final int port;
+    private final int connections;
+    private final int players;
+    private final double togglesPerSecond;
+    private final long durationMillis;
+    private final int tableSize;
+
+    private final List<Client> joinedClients = new ArrayList<>();
+    private long connected, failed, joined, messages, bytes, toggles, joinNanos, maxJoinNanos;
+
+    public LoadGenerator(String host, int port, int connections, int players, double togglesPerSecond,
+                         long durationMillis, int tableSize) {
+        this.host = host;
+        this.port = port;
+        this.connections = connections;
+        this.players = players;
+        this.togglesPerSecond = togglesPerSecond;
+        this.durationMillis = durationMillis;
+        this.tableSize = tableSize;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String host = args.length > 0 ? args[0] : "127.0.0.1";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 7777;
+        int connections = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int players = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+        double rate = args.length > 4 ? Double.parseDouble(args[4]) : 100;
+        long seconds = args.length > 5 ? Long.parseLong(args[5]) : 10;
+        int tableSize = args.length > 6 ? Integer.parseInt(args[6]) : 12;
+        new LoadGenerator(host, port, connections, players, rate, seconds * 1000, tableSize).run();
+    }
+
+    /**
+     * Runs the load for the configured duration and prints the summary to the standard output.
+     */
+    public void run() throws IOException {
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        List<Client> clients = new ArrayList<>(connections);
+        try (Selector selector = Selector.open()) {
+            for (int i = 0; i < connections; i++) {
+                SocketChannel channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                Client client = new Client(channel, players > 0 ? i % players : -1);
+                clients.add(client);
+                try {
+                    if (channel.connect(address)) onConnected(client, channel.register(selector, SelectionKey.OP_READ, client));
+                    else channel.register(selector, SelectionKey.OP_CONNECT, client);
+                } catch (IOException e) {
+                    failed++;
+                    channel.close();
+                }
+            }
+
+            long start = System.currentTimeMillis();
+            long deadline = start + durationMillis;
+            int next = 0;
+            while (System.currentTimeMillis() < deadline) {
+                selector.select(1);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Client client = (Client) key.attachment();
+                    try {
+                        if (key.isValid() && key.isConnectable() && client.channel.finishConnect())
+                            onConnected(client, key);
+                        if (key.isValid() && key.isReadable()) read(client, key);
+                        if (key.isValid() && key.isWritable()) write(client, key);
+                    } catch (IOException e) {
+                        if (!client.joined) failed++;
+                        key.cancel();
+                        client.channel.close();
+                    }
+                }
+
+                // send the toggles that are due by now (round robin over the joined players)
+                long due = (long) (togglesPerSecond * (System.currentTimeMillis() - start) / 1000.0) - toggles;
+                for (; due > 0 && !joinedClients.isEmpty(); due--) {
+                    Client client = joinedClients.get(next++ % joinedClients.size());
+                    SelectionKey key = client.channel.keyFor(selector);
+                    if (key == null || !key.isValid()) continue;
+                    send(client, key, Protocol.toggle(ThreadLocalRandom.current().nextInt(tableSize)));
+                    toggles++;
+                }
+            }
+
+            for (Client client : clients) client.channel.close();
+        }
+
+        double elapsed = durationMillis / 1000.0;
+        System.out.println("connections: " + connections + " connected: " + connected + " failed: " + failed + " joined: " + joined);
+        System.out.println(String.format("join latency: avg %.2f ms, max %.2f ms",
+                joined == 0 ? 0.0 : joinNanos / 1e6 / joined, maxJoinNanos / 1e6));
+        System.out.println(String.format("toggles sent: %d (%.1f/s)", toggles, toggles / elapsed));
+        System.out.println(String.format("messages received: %d (%.1f/s), bytes received: %d (%.1f KB/s)",
+                messages, messages / elapsed, bytes, bytes / 1024.0 / elapsed));
+    }
+
+    private void onConnected(Client client, SelectionKey key) throws IOException {
+        connected++;
+        key.interestOps(SelectionKey.OP_READ);
+        send(client, key, players < 0 ? Protocol.spectate() : Protocol.join(client.player));
+    }
+
+    private void read(Client client, SelectionKey key) throws IOException {
+        int read = client.channel.read(client.in);
+        if (read < 0) throw new IOException("connection closed by the server");
+        bytes += read;
+        ByteBuffer in = client.in;
+        in.flip();
+        int length;
+        while ((length = Protocol.messageLength(in)) > 0 && length <= in.remaining()) {
+            byte opcode = in.get(in.position());
+            if ((opcode == Protocol.JOINED || opcode == Protocol.FRAME) && !client.joined) {
+                client.joined = true;
+                joined++;
+                long nanos = System.nanoTime() - client.connectStart;
+                joinNanos += nanos;
+                maxJoinNanos = Math.max(maxJoinNanos, nanos);
+                if (opcode == Protocol.JOINED && in.getShort(in.position() + 1) >= 0) joinedClients.add(client);
+            }
+            in.position(in.position() + length);
+            messages++;
+        }
+        in.compact();
+        if (length < 0) throw new IOException("protocol error");
+    }
+
+    private void send(Client client, SelectionKey key, ByteBuffer message) throws IOException {
+        client.out.add(message);
+        write(client, key);
+    }
+
+    private void write(Client client, SelectionKey key) throws IOException {
+        while (!client.out.isEmpty()) {
+            client.channel.write(client.out.peek());
+            if (client.out.peek().hasRemaining()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            client.out.poll();
+        }
+        key.interestOps(SelectionKey.OP_READ);
+    }
+}
@@ -0,0 +1,186 @@
+package bguspl.set;
+
+import bguspl.set.ex.Dealer;
+import bguspl.set.ex.HeadlessGame;
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.io.InputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Future;
+
+/**
+ * A load test of a single table: runs one game without a window, with many computer players pressing keys at a fixed
+ * rate, until the deck runs out of sets, then prints a report (claims per second, the claim to verdict latency, the
+ * depth of the dealer's claim queue over time, the penalty rate, the cpu time of each player and the gc pauses).
+ * <p>
+ * The cards dealt and the keys pressed are seeded, so a scenario (players, rate, seed and configuration file) repeats
+ * the same input on every build, while the thread scheduling still varies from run to run.
+ * <p>
+ * Usage: LoadTest [players] [pressesPerSecond] [seed] [config file]
+ * (the configuration file sets the other settings, e.g. TableDelaySeconds and the freeze times).
+ */
+public class LoadTest {
+
+    /**
+     * The time between two samples of the claim queue.
+     */
+    private static final long SAMPLE_MILLIS = 100;
+
+    /**
+     * The number of players listed in the cpu time report (the busiest ones).
+     */
+    private static final int LISTED_PLAYERS = 10;
+
+    public static void main(String[] args) throws Exception {
+        int players = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        double rate = args.length > 1 ? Double.parseDouble(args[1]) : 10;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+        String configFile = args.length > 3 ? args[3] : "config.properties";
+
+        Properties properties = new Properties();
+        try (InputStream is = Files.newInputStream(Paths.get(configFile))) {
+            properties.load(is);
+        } catch (NoSuchFileException e) {
+            System.out.println("no " + configFile + ", using the default configuration");
+        }
+        properties.setProperty("HumanPlayers", "0");
+        properties.setProperty("ComputerPlayers", Integer.toString(players));
+        properties.setProperty("ComputerPressesPerSecond", Double.toString(rate));
+        properties.setProperty("RandomSeed", Long.toString(seed));
+        properties.setProperty("Rounds", "1");
+        properties.setProperty("LatencyStatistics", "True");
+        // the user interface updates are logged at the severe level, which would measure the log instead
+        properties.setProperty("LogLevel", "OFF");
+
+        new LoadTest(properties).run();
+    }
+
+    private final HeadlessGame game;
+    private final Config config;
+    private final Env env;
+    private final Dealer dealer;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    /**
+     * The claim queue depth, sampled every SAMPLE_MILLIS.
+     */
+    private final List<Integer> queueDepths = new ArrayList<>();
+
+    /**
+     * The gc pauses during the game.
+     */
+    private final LatencyHistogram gcPauses = new LatencyHistogram();
+
+    private LoadTest(Properties properties) {
+        game = new HeadlessGame(properties, null);
+        config = game.config;
+        env = game.env;
+        dealer = game.dealer;
+    }
+
+    private void run() throws Exception {
+        System.out.println(String.format("scenario: %d players, %.1f presses/s each, seed %d, table delay %d ms, "
+                        + "freezes %d/%d ms, %d features of %d values", config.players, config.computerPressesPerSecond,
+                config.randomSeed, config.tableDelayMillis, config.pointFreezeMillis, config.penaltyFreezeMillis,
+                config.featureCount, config.featureSize));
+
+        NotificationListener gcListener = (notification, handback) -> {
+            if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType()))
+                return;
+            GarbageCollectionNotificationInfo info =
+                    GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            gcPauses.record(info.getGcInfo().getDuration() * 1_000_000L);
+        };
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            if (gc instanceof NotificationEmitter)
+                ((NotificationEmitter) gc).addNotificationListener(gcListener, null, null);
+
+        long started = System.nanoTime();
+        Future<?> task = game.start();
+        // the game time ends when the dealer starts tearing the game down (not when its thread returns)
+        while (!task.isDone() && !dealer.isTerminated()) {
+            queueDepths.add(dealer.getPlayerSet().size());
+            Thread.sleep(SAMPLE_MILLIS);
+        }
+        double seconds = (System.nanoTime() - started) / 1e9;
+        task.get();
+
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            if (gc instanceof NotificationEmitter) try {
+                ((NotificationEmitter) gc).removeNotificationListener(gcListener);
+            } catch (ListenerNotFoundException ignored) {
+            }
+
+        report(seconds);
+        dealer.shutdown();
+    }
+
+    private void report(double seconds) {
+        long submitted = env.metrics.counter("claims.submitted").sum();
+        long accepted = env.metrics.counter("claims.accepted").sum();
+        long rejected = env.metrics.counter("claims.rejected").sum();
+        System.out.println(String.format("game time: %.2f s", seconds));
+        System.out.println(String.format("claims: %d submitted (%.1f/s), %d accepted, %d rejected, %d with taken cards",
+                submitted, submitted / seconds, accepted, rejected, submitted - accepted - rejected));
+        System.out.println(String.format("penalty rate: %.1f%% of the claims",
+                submitted == 0 ? 0 : 100.0 * rejected / submitted));
+        System.out.println("claim to verdict latency: " + env.latency.histogram(InputLatency.Stage.VERDICT));
+        System.out.println("key press to token latency: " + env.latency.histogram(InputLatency.Stage.INPUT));
+
+        // the queue depth per second of the game
+        StringBuilder depths = new StringBuilder("claim queue depth (mean/max per second):");
+        int perSecond = (int) (1000 / SAMPLE_MILLIS);
+        int max = 0;
+        long sum = 0;
+        for (int from = 0; from < queueDepths.size(); from += perSecond) {
+            List<Integer> second = queueDepths.subList(from, Math.min(from + perSecond, queueDepths.size()));
+            int secondMax = second.stream().mapToInt(Integer::intValue).max().orElse(0);
+            double secondMean = second.stream().mapToInt(Integer::intValue).average().orElse(0);
+            depths.append(String.format(" %.1f/%d", secondMean, secondMax));
+            max = Math.max(max, secondMax);
+            sum += second.stream().mapToInt(Integer::intValue).sum();
+        }
+        System.out.println(String.format("claim queue depth: mean %.2f, max %d",
+                queueDepths.isEmpty() ? 0 : (double) sum / queueDepths.size(), max));
+        System.out.println(depths);
+
+        // the cpu time of the player and computer threads of each player (the pooled threads keep their names)
+        long[] cpuNanos = new long[config.players];
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            String name = thread.getName();
+            int dash = name.indexOf('-');
+            if (dash < 0 || !(name.startsWith("player-") || name.startsWith("computer-"))) continue;
+            int player = Integer.parseInt(name.substring(dash + 1));
+            long cpu = threads.getThreadCpuTime(thread.getId());
+            if (player < cpuNanos.length && cpu > 0) cpuNanos[player] += cpu;
+        }
+        long[] sorted = cpuNanos.clone();
+        Arrays.sort(sorted);
+        System.out.println(String.format("cpu per player: mean %.1f ms, min %.1f ms, median %.1f ms, max %.1f ms",
+                Arrays.stream(cpuNanos).average().orElse(0) / 1e6, sorted[0] / 1e6, sorted[sorted.length / 2] / 1e6,
+                sorted[sorted.length - 1] / 1e6));
+        Integer[] busiest = new Integer[cpuNanos.length];
+        Arrays.setAll(busiest, i -> i);
+        Arrays.sort(busiest, (a, b) -> Long.compare(cpuNanos[b], cpuNanos[a]));
+        StringBuilder busy = new StringBuilder("busiest players:");
+        for (int i = 0; i < Math.min(LISTED_PLAYERS, busiest.length); i++)
+            busy.append(String.format(" %d (%.1f ms)", busiest[i], cpuNanos[busiest[i]] / 1e6));
+        System.out.println(busy);
+
+        System.out.println(String.format("gc pauses: %d, total %.1f ms, max %.1f ms",
+                gcPauses.count(), gcPauses.mean() * gcPauses.count() / 1e6, gcPauses.max() / 1e6));
+    }
+}
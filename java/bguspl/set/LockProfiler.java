@@ -0,0 +1,247 @@
+package bguspl.set;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Contention profiling of the engine monitors (enabled by Config.lockProfiling). Every instrumented critical section is
+ * a Site (a monitor at a code location), which records the time threads waited to enter it and the time they held it.
+ * The critical section is passed to the site, which enters the monitor and leaves it (also on an exception or an early
+ * return):
+ * <pre>
+ *     site.locked(monitor, () -> ...);
+ *     T result = site.locked(monitor, () -> ...);
+ *     site.locked(monitor, hold -> { ... hold.await(); ... });
+ * </pre>
+ * The monitors themselves are kept (rather than replaced by instrumented locks), as the engine relies on their
+ * wait/notify. The time a thread spends in Object.wait is neither waiting for the monitor nor holding it, so await
+ * ends the hold and starts a new one when the thread owns the monitor again. When profiling is disabled the sites do
+ * not read the clock.
+ * <p>
+ * With Config.scheduleFuzzing every site is also a schedule fuzzing point: the thread spins (Util.spin) before it
+ * requests the monitor, when it owns the monitor again after a wait and before it leaves the monitor, which reorders
+ * the threads that compete for the monitor and stretches the critical sections. The spins are seeded per thread
+ * (Config.scheduleSeed), so a run that failed or stalled can be repeated with its seed and profiled.
+ */
+public class LockProfiler {
+
+    private final boolean enabled;
+    private final boolean fuzzing;
+    private final Util util;
+    private final Map<String, Site> sites = new ConcurrentHashMap<>();
+
+    public LockProfiler(Config config, Util util) {
+        enabled = config.lockProfiling;
+        fuzzing = config.scheduleFuzzing;
+        this.util = util;
+    }
+
+    /**
+     * @return - the site of the given name (created on the first call), e.g. "table: Table.placeToken".
+     */
+    public Site site(String name) {
+        return sites.computeIfAbsent(name, Site::new);
+    }
+
+    /**
+     * A critical section that may wait on the monitor of its site.
+     *
+     * @param <T> - the result of the section.
+     * @param <E> - the exception the section throws (e.g. InterruptedException if it does not handle a wait's).
+     */
+    public interface Section<T, E extends Exception> {
+        T run(Hold hold) throws E;
+    }
+
+    public class Site {
+
+        private final String name;
+        private final LongAdder acquisitions = new LongAdder();
+        private final LongAdder contended = new LongAdder();
+        private final LatencyHistogram waits = new LatencyHistogram();
+        private final LatencyHistogram holds = new LatencyHistogram();
+
+        private Site(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Runs a critical section that holds the monitor.
+         *
+         * @param monitor - the monitor of the site.
+         * @param section - the code to run while holding it.
+         */
+        public void locked(Object monitor, Runnable section) {
+            long held = enter();
+            synchronized (monitor) {
+                held = entered(held);
+                try {
+                    section.run();
+                } finally {
+                    exit(held);
+                }
+            }
+        }
+
+        /**
+         * Like locked(monitor, section), for a section with a result.
+         *
+         * @return - the result of the section.
+         */
+        public <T> T locked(Object monitor, Supplier<T> section) {
+            long held = enter();
+            synchronized (monitor) {
+                held = entered(held);
+                try {
+                    return section.get();
+                } finally {
+                    exit(held);
+                }
+            }
+        }
+
+        /**
+         * Like locked(monitor, section), for a section that waits on the monitor (through the given Hold).
+         *
+         * @return - the result of the section.
+         */
+        public <T, E extends Exception> T locked(Object monitor, Section<T, E> section) throws E {
+            Hold hold = new Hold(this, monitor, enter());
+            synchronized (monitor) {
+                hold.held = entered(hold.held);
+                try {
+                    return section.run(hold);
+                } finally {
+                    exit(hold.held);
+                }
+            }
+        }
+
+        /**
+         * Called right before entering the monitor.
+         *
+         * @return - the time the monitor was requested.
+         */
+        private long enter() {
+            if (fuzzing) util.spin();
+            return enabled ? System.nanoTime() : 0;
+        }
+
+        /**
+         * Called first thing inside the monitor.
+         *
+         * @param requested - the value returned by enter.
+         * @return - the time the monitor was acquired.
+         */
+        private long entered(long requested) {
+            if (!enabled) return 0;
+            long now = System.nanoTime();
+            long waited = now - requested;
+            acquisitions.increment();
+            // the clock reads alone take tens of nanoseconds, longer waits mean another thread held the monitor
+            if (waited > 1000) contended.increment();
+            waits.record(waited);
+            return now;
+        }
+
+        /**
+         * Waits on the monitor (which the caller owns), ending the current hold until the monitor is owned again.
+         *
+         * @param monitor       - the monitor of the site.
+         * @param held          - the time the monitor was acquired.
+         * @param timeoutMillis - the maximum time to wait (0 to wait until notified).
+         * @return - the time the monitor was acquired again.
+         */
+        private long await(Object monitor, long held, long timeoutMillis) throws InterruptedException {
+            exit(held);
+            monitor.wait(timeoutMillis);
+            if (fuzzing) util.spin();
+            return enabled ? System.nanoTime() : 0;
+        }
+
+        /**
+         * Called right before leaving the monitor.
+         *
+         * @param held - the time the monitor was acquired.
+         */
+        private void exit(long held) {
+            if (fuzzing) util.spin();
+            if (enabled) holds.record(System.nanoTime() - held);
+        }
+
+        private void reset() {
+            acquisitions.reset();
+            contended.reset();
+            waits.reset();
+            holds.reset();
+        }
+
+        private long totalWaitNanos() {
+            return (long) (waits.mean() * waits.count());
+        }
+    }
+
+    /**
+     * A critical section's hold of its monitor, through which it waits on the monitor.
+     */
+    public static class Hold {
+
+        private final Site site;
+        private final Object monitor;
+        private long held;
+
+        private Hold(Site site, Object monitor, long requested) {
+            this.site = site;
+            this.monitor = monitor;
+            this.held = requested;
+        }
+
+        /**
+         * Waits on the monitor until notified (Object.wait), ending the hold until the monitor is owned again.
+         */
+        public void await() throws InterruptedException {
+            held = site.await(monitor, held, 0);
+        }
+
+        /**
+         * Like await(), but waits at most the given time.
+         *
+         * @param timeoutMillis - the maximum time to wait.
+         */
+        public void await(long timeoutMillis) throws InterruptedException {
+            held = site.await(monitor, held, timeoutMillis);
+        }
+    }
+
+    /**
+     * @return - the sites that were entered, ranked by the total time threads waited to enter them.
+     */
+    public String report() {
+        List<Site> ranked = new ArrayList<>();
+        for (Site site : sites.values())
+            if (site.acquisitions.sum() > 0) ranked.add(site);
+        ranked.sort(Comparator.comparingLong(Site::totalWaitNanos).reversed());
+
+        StringBuilder report = new StringBuilder("lock contention (ranked by total wait):");
+        report.append(System.lineSeparator()).append(String.format("  %-4s %-45s %10s %9s %12s %10s %10s %10s %10s",
+                "rank", "site", "acquired", "contended", "wait total", "wait p99", "wait max", "hold p99", "hold max"));
+        int rank = 1;
+        for (Site site : ranked)
+            report.append(System.lineSeparator()).append(String.format(
+                    "  %-4d %-45s %10d %8.1f%% %10.1fms %8.1fus %8.1fus %8.1fus %8.1fus",
+                    rank++, site.name, site.acquisitions.sum(),
+                    100.0 * site.contended.sum() / site.acquisitions.sum(), site.totalWaitNanos() / 1e6,
+                    site.waits.percentile(99) / 1e3, site.waits.max() / 1e3,
+                    site.holds.percentile(99) / 1e3, site.holds.max() / 1e3));
+        return report.toString();
+    }
+
+    public void reset() {
+        for (Site site : sites.values()) site.reset();
+    }
+}
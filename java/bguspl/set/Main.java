@@ -1,15 +1,19 @@
 package bguspl.set;
 
 import bguspl.set.ex.Dealer;
+import bguspl.set.ex.GameSnapshot;
 import bguspl.set.ex.Player;
 import bguspl.set.ex.Table;
+import bguspl.set.ex.Watchdog;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.*;
 
 /**
@@ -17,6 +21,15 @@ import java.util.logging.*;
  */
 public class Main {
 
+    /**
+     * The log settings (the logger is created before the configuration is read).
+     */
+    private static final int LOG_BUFFER_RECORDS = 16384;
+    private static final long LOG_FILE_BYTES = 64L * 1024 * 1024;
+    private static final int LOG_FILES = 4;
+
+    private static final String CONFIG_FILE = "config.properties";
+
     private static Dealer dealer;
     private static Thread thread;
 
@@ -43,40 +56,112 @@ public class Main {
         // create the game environment objects
         logger = initLogger();
         ThreadLogger.logStart(logger, Thread.currentThread().getName());
-        Config config = new Config(logger, "config.properties");
+        Config config = new Config(logger, CONFIG_FILE);
         Util util = new UtilImpl(config);
+        if (config.scheduleFuzzing)
+            logger.info("schedule fuzzing with spins of " + config.randomSpinMin + " to " + config.randomSpinMax
+                    + " cycles and ScheduleSeed=" + config.scheduleSeed + " (set it to replay this run)");
 
         Player[] players = new Player[config.players];
+        InputLatency latency = new InputLatency(config);
         UserInterface ui = null;
         try {
-            ui = new UserInterfaceSwing(logger, config, players);
+            ui = new UserInterfaceSwing(logger, config, players, latency);
         } catch (UnsupportedOperationException | IllegalArgumentException e) {
             logger.severe("error creating swing user interface: " + e.getMessage());
             logger.severe("will try to run without user interface");
             if (config.humanPlayers > 0)
                 logger.severe("warning: running with human players with no user interface");
         }
-        ui = new UserInterfaceDecorator(logger, util, ui);
 
-        Env env = new Env(logger, config, ui, util);
+        GameServer server = null;
+        if (config.serverPort >= 0) try {
+            server = new GameServer(logger, config, players);
+        } catch (IOException e) {
+            logger.severe("error creating game server: " + e.getMessage());
+        }
+
+        GameJournal journal = null;
+        if (!config.journalFile.isEmpty()) try {
+            journal = new GameJournal(logger, config, config.journalFile);
+        } catch (IOException e) {
+            logger.severe("error creating game journal: " + e.getMessage());
+        }
+        ui = new UserInterfaceDecorator(logger, util,
+                UserInterfaceMulticast.of(ui, server == null ? null : server.userInterface(), journal));
+
+        Env env = new Env(logger, config, ui, util, journal, latency);
+        if (config.jmxMetrics) env.metrics.register(logger);
 
         // create the game entities
         Table table = new Table(env);
         dealer = new Dealer(env, table, players);
         for (int i = 0; i < players.length; i++)
             players[i] = new Player(env, dealer, table, i, i < env.config.humanPlayers);
-
-        // start the dealer thread
-        ThreadLogger dealerThread = new ThreadLogger(dealer, "dealer", logger);
-        dealerThread.startWithLog();
+        if (server != null) server.start();
+        if (config.snapshotRestore && !config.snapshotFile.isEmpty() && new File(config.snapshotFile).exists()) try {
+            dealer.restore(GameSnapshot.read(Paths.get(config.snapshotFile)));
+        } catch (IOException | IllegalArgumentException e) {
+            logger.severe("cannot restore the game snapshot, starting a new game: " + e.getMessage());
+        }
+        ConfigWatcher configWatcher = null;
+        if (config.configReload && new File(CONFIG_FILE).exists()) try {
+            configWatcher = new ConfigWatcher(logger, env, CONFIG_FILE);
+            ThreadLogger watcherThread = new ThreadLogger(configWatcher, "config-watcher", logger);
+            watcherThread.setDaemon(true);
+            watcherThread.startWithLog();
+        } catch (IOException e) {
+            logger.severe("cannot watch the configuration file: " + e.getMessage());
+        }
+        Watchdog watchdog = null;
+        if (config.watchdogStallMillis > 0) {
+            watchdog = new Watchdog(env, dealer, players);
+            ThreadLogger watchdogThread = new ThreadLogger(watchdog, "watchdog", logger);
+            watchdogThread.setDaemon(true);
+            watchdogThread.startWithLog();
+        }
+        if (journal != null) {
+            ThreadLogger journalThread = new ThreadLogger(journal, "journal-flusher", logger);
+            journalThread.setDaemon(true);
+            journalThread.startWithLog();
+        }
 
         try {
+            for (int round = 1; ; round++) {
+                // run the dealer on a pooled thread (the threads, images and window are reused by the next round)
+                ThreadLogger.logStart(logger, "dealer");
+                dealer.execute(() -> {
+                    Thread.currentThread().setName("dealer");
+                    dealer.run();
+                }).get();
+                ThreadLogger.logStop(logger, "dealer");
+                if (config.latencyStatistics) logger.info(latency.report());
+                logger.info(env.metrics.report());
+                if (config.lockProfiling) logger.info(env.locks.report());
+                // the pause and the number of rounds can be reloaded
+                Config current = env.config;
+                if (!xButtonPressed && current.endGamePauseMillies > 0) Thread.sleep(current.endGamePauseMillies);
+                if (xButtonPressed || current.rounds > 0 && round >= current.rounds) break;
+
+                logger.info("starting round " + (round + 1));
+                env.ui.reset();
+                latency.reset();
+                env.metrics.reset();
+                env.locks.reset();
+                dealer.reset();
+            }
             // shutdown stuff
-            dealerThread.joinWithLog();
-            if (!xButtonPressed && config.endGamePauseMillies > 0) Thread.sleep(config.endGamePauseMillies);
             env.ui.dispose();
         } catch (InterruptedException ignored) {
+        } catch (ExecutionException e) {
+            logger.severe("the dealer failed: " + e.getCause());
         } finally {
+            if (watchdog != null) watchdog.close();
+            if (configWatcher != null) configWatcher.close();
+            dealer.shutdown();
+            env.metrics.unregister();
+            if (server != null) server.close();
+            if (journal != null) journal.close();
             logger.severe("thanks for playing... it was fun!");
             System.out.println("Thanks for playing... it was fun!");
             ThreadLogger.logStop(logger, Thread.currentThread().getName());
@@ -88,11 +173,13 @@ public class Main {
 
         //just to make our log file nicer :)
         SimpleDateFormat format = new SimpleDateFormat("M-d_HH-mm-ss");
-        FileHandler handler;
+        Handler handler;
         try {
             //noinspection ResultOfMethodCallIgnored
             new File("./logs/").mkdirs();
-            handler = new FileHandler("./logs/" + format.format(Calendar.getInstance().getTime()) + ".log");
+            // the game threads only queue the records, a background thread formats and writes them
+            handler = new AsyncLogHandler("./logs/" + format.format(Calendar.getInstance().getTime()) + ".log",
+                    LOG_BUFFER_RECORDS, LOG_FILE_BYTES, LOG_FILES);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -112,7 +199,7 @@ public class Main {
             @Override
             public synchronized String format(LogRecord lr) {
                 return String.format(format, new Date(lr.getMillis()),
-                        lr.getLevel().getLocalizedName(), lr.getMessage()
+                        lr.getLevel().getLocalizedName(), formatMessage(lr)
                 );
             }
         }));
@@ -0,0 +1,185 @@
+package bguspl.set;
+
+import javax.management.*;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+
+/**
+ * The runtime metrics of the game: counters, gauges and latency histograms, registered by name and published as the
+ * attributes of one MBean (bguspl.set:type=GameMetrics) that can be watched from a JMX console while the game runs.
+ * <p>
+ * The game entities look their metrics up once (when they are created) and keep the returned objects, so recording is
+ * a LongAdder increment or a histogram record on the hot paths. Gauges are only evaluated when they are read.
+ * Histograms are published as name.count, name.mean, name.p50, name.p99 and name.max attributes (in microseconds).
+ */
+public class MetricsRegistry implements DynamicMBean {
+
+    public static final String OBJECT_NAME = "bguspl.set:type=GameMetrics";
+
+    private final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentSkipListMap<>();
+
+    private ObjectName registeredName;
+
+    /**
+     * @return - the counter of the given name (created on the first call).
+     */
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    /**
+     * Registers (or replaces) a gauge.
+     *
+     * @param name  - the gauge name.
+     * @param gauge - computes the current value (called by the JMX threads, so it must be safe to call concurrently).
+     */
+    public void gauge(String name, LongSupplier gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * @return - the histogram of the given name (created on the first call).
+     */
+    public LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    /**
+     * Registers (or replaces) a histogram that is recorded elsewhere.
+     *
+     * @param name      - the histogram name.
+     * @param histogram - the histogram.
+     */
+    public void histogram(String name, LatencyHistogram histogram) {
+        histograms.put(name, histogram);
+    }
+
+    /**
+     * Zeroes the counters and histograms (the gauges reflect the current state anyway).
+     */
+    public void reset() {
+        counters.values().forEach(LongAdder::reset);
+        histograms.values().forEach(LatencyHistogram::reset);
+    }
+
+    /**
+     * Publishes the metrics in the platform MBean server.
+     */
+    public void register(Logger logger) {
+        try {
+            registeredName = new ObjectName(OBJECT_NAME);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(registeredName)) server.unregisterMBean(registeredName);
+            server.registerMBean(this, registeredName);
+        } catch (JMException e) {
+            logger.severe("cannot publish the game metrics: " + e.getMessage());
+            registeredName = null;
+        }
+    }
+
+    public void unregister() {
+        if (registeredName == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+        } catch (JMException ignored) {
+        }
+        registeredName = null;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        LongAdder counter = counters.get(attribute);
+        if (counter != null) return counter.sum();
+        LongSupplier gauge = gauges.get(attribute);
+        if (gauge != null) return gauge.getAsLong();
+        int dot = attribute.lastIndexOf('.');
+        LatencyHistogram histogram = dot < 0 ? null : histograms.get(attribute.substring(0, dot));
+        if (histogram != null) {
+            switch (attribute.substring(dot + 1)) {
+                case "count":
+                    return histogram.count();
+                case "mean":
+                    return histogram.mean() / 1000.0;
+                case "p50":
+                    return histogram.percentile(50) / 1000.0;
+                case "p99":
+                    return histogram.percentile(99) / 1000.0;
+                case "max":
+                    return histogram.max() / 1000.0;
+            }
+        }
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException ignored) {
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("the game metrics are read only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        if ("reset".equals(actionName)) {
+            reset();
+            return null;
+        }
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (String name : counters.keySet())
+            attributes.add(new MBeanAttributeInfo(name, "long", "counter", true, false, false));
+        for (String name : gauges.keySet())
+            attributes.add(new MBeanAttributeInfo(name, "long", "gauge", true, false, false));
+        for (String name : histograms.keySet())
+            for (String field : new String[]{"count", "mean", "p50", "p99", "max"})
+                attributes.add(field.equals("count")
+                        ? new MBeanAttributeInfo(name + "." + field, "long", "histogram count", true, false, false)
+                        : new MBeanAttributeInfo(name + "." + field, "double", "histogram " + field + " (microseconds)",
+                        true, false, false));
+        MBeanOperationInfo reset = new MBeanOperationInfo("reset", "zeroes the counters and histograms",
+                new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+        return new MBeanInfo(getClass().getName(), "set game metrics",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[]{reset}, null);
+    }
+
+    /**
+     * @return - all the metrics, one per line.
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder("game metrics:");
+        counters.forEach((name, counter) -> report.append(System.lineSeparator()).append("  ").append(name)
+                .append(" = ").append(counter.sum()));
+        gauges.forEach((name, gauge) -> report.append(System.lineSeparator()).append("  ").append(name)
+                .append(" = ").append(gauge.getAsLong()));
+        histograms.forEach((name, histogram) -> report.append(System.lineSeparator()).append("  ").append(name)
+                .append(": ").append(histogram));
+        return report.toString();
+    }
+}
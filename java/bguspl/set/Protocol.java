@@ -0,0 +1,241 @@
+package bguspl.set;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The binary protocol spoken between the game server and its remote clients.
+ * Every message starts with a one byte opcode followed by a fixed layout of big-endian fields (see the constants).
+ * Players and slots are encoded as shorts, card ids and scores as ints and times as longs.
+ */
+public final class Protocol {
+
+    /**
+     * Client to server: join the game as a player (short player id, negative to join as an observer).
+     */
+    public static final byte JOIN = 0x01;
+
+    /**
+     * Client to server: toggle a token on a slot (short slot).
+     */
+    public static final byte TOGGLE = 0x02;
+
+    /**
+     * Client to server: claim a set (byte count, followed by count shorts of slots).
+     */
+    public static final byte CLAIM = 0x03;
+
+    /**
+     * Client to server: join the game as a spectator (no payload, answered with a snapshot frame).
+     */
+    public static final byte SPECTATE = 0x04;
+
+    /**
+     * Server to client: the join request was handled (short player id, negative for an observer). A client that asks
+     * for a human player, or for a player another connection has joined as, joins as an observer.
+     */
+    public static final byte JOINED = 0x10;
+
+    /**
+     * Server to client: a card was placed (short slot, int card).
+     */
+    public static final byte PLACE_CARD = 0x11;
+
+    /**
+     * Server to client: a card was removed (short slot).
+     */
+    public static final byte REMOVE_CARD = 0x12;
+
+    /**
+     * Server to client: a token was placed (short player, short slot).
+     */
+    public static final byte PLACE_TOKEN = 0x13;
+
+    /**
+     * Server to client: a token was removed (short player, short slot).
+     */
+    public static final byte REMOVE_TOKEN = 0x14;
+
+    /**
+     * Server to client: all tokens were removed from a slot (short slot, -1 for all the slots).
+     */
+    public static final byte REMOVE_TOKENS = 0x15;
+
+    /**
+     * Server to client: the countdown was updated (long millies, byte warn).
+     */
+    public static final byte COUNTDOWN = 0x16;
+
+    /**
+     * Server to client: the elapsed time was updated (long millies).
+     */
+    public static final byte ELAPSED = 0x17;
+
+    /**
+     * Server to client: a player freeze was updated (short player, long millies).
+     */
+    public static final byte FREEZE = 0x18;
+
+    /**
+     * Server to client: a player score was updated (short player, int score).
+     */
+    public static final byte SCORE = 0x19;
+
+    /**
+     * Server to client: the game ended (short count, followed by count shorts of player ids).
+     */
+    public static final byte WINNERS = 0x1A;
+
+    /**
+     * Server to client: a spectator frame (int length, followed by length bytes, see UserInterfaceSpectator).
+     */
+    public static final byte FRAME = 0x1B;
+
+    /**
+     * The maximum number of slots in a single claim message.
+     */
+    public static final int MAX_CLAIM_SLOTS = 127;
+
+    private Protocol() {
+    }
+
+    /**
+     * Returns the length of the message at the buffer position, without consuming it.
+     *
+     * @param buffer - a buffer in read mode.
+     * @return - the total length of the message (opcode included), 0 if more bytes are needed to tell, or -1 if the
+     * opcode is unknown or the length is negative.
+     */
+    public static int messageLength(ByteBuffer buffer) {
+        int available = buffer.remaining();
+        if (available < 1) return 0;
+        int start = buffer.position();
+        switch (buffer.get(start)) {
+            case SPECTATE:
+                return 1;
+            case JOIN:
+            case TOGGLE:
+            case JOINED:
+            case REMOVE_CARD:
+            case REMOVE_TOKENS:
+                return 3;
+            case PLACE_TOKEN:
+            case REMOVE_TOKEN:
+                return 5;
+            case PLACE_CARD:
+            case SCORE:
+                return 7;
+            case ELAPSED:
+                return 9;
+            case COUNTDOWN:
+                return 10;
+            case FREEZE:
+                return 11;
+            case CLAIM:
+                return available < 2 ? 0 : buffer.get(start + 1) < 0 ? -1 : 2 + 2 * buffer.get(start + 1);
+            case WINNERS:
+                return available < 3 ? 0 : buffer.getShort(start + 1) < 0 ? -1 : 3 + 2 * buffer.getShort(start + 1);
+            case FRAME:
+                return available < 5 ? 0 : buffer.getInt(start + 1) < 0 ? -1 : 5 + buffer.getInt(start + 1);
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Returns the length of the client to server message at the buffer position, without consuming it. The server
+     * messages are not accepted from a client (their length fields are not bounded by the server's read buffer).
+     *
+     * @param buffer    - a buffer in read mode.
+     * @param maxClaim  - the maximum number of slots in a claim (Config.featureSize).
+     * @return - the total length of the message (opcode included), 0 if more bytes are needed to tell, or -1 if it is
+     * not a client message or its claim count is not in [1, maxClaim].
+     */
+    public static int clientMessageLength(ByteBuffer buffer, int maxClaim) {
+        if (buffer.remaining() < 1) return 0;
+        int start = buffer.position();
+        switch (buffer.get(start)) {
+            case SPECTATE:
+                return 1;
+            case JOIN:
+            case TOGGLE:
+                return 3;
+            case CLAIM:
+                if (buffer.remaining() < 2) return 0;
+                int count = buffer.get(start + 1);
+                return count >= 1 && count <= maxClaim ? 2 + 2 * count : -1;
+            default:
+                return -1;
+        }
+    }
+
+    public static ByteBuffer join(int player) {
+        return seal(ByteBuffer.allocate(3).put(JOIN).putShort((short) player));
+    }
+
+    public static ByteBuffer spectate() {
+        return seal(ByteBuffer.allocate(1).put(SPECTATE));
+    }
+
+    public static ByteBuffer toggle(int slot) {
+        return seal(ByteBuffer.allocate(3).put(TOGGLE).putShort((short) slot));
+    }
+
+    public static ByteBuffer claim(int[] slots) {
+        if (slots.length > MAX_CLAIM_SLOTS)
+            throw new IllegalArgumentException("too many slots in claim: " + slots.length);
+        ByteBuffer buffer = ByteBuffer.allocate(2 + 2 * slots.length).put(CLAIM).put((byte) slots.length);
+        for (int slot : slots) buffer.putShort((short) slot);
+        return seal(buffer);
+    }
+
+    public static ByteBuffer joined(int player) {
+        return seal(ByteBuffer.allocate(3).put(JOINED).putShort((short) player));
+    }
+
+    public static ByteBuffer placeCard(int card, int slot) {
+        return seal(ByteBuffer.allocate(7).put(PLACE_CARD).putShort((short) slot).putInt(card));
+    }
+
+    public static ByteBuffer removeCard(int slot) {
+        return seal(ByteBuffer.allocate(3).put(REMOVE_CARD).putShort((short) slot));
+    }
+
+    public static ByteBuffer placeToken(int player, int slot) {
+        return seal(ByteBuffer.allocate(5).put(PLACE_TOKEN).putShort((short) player).putShort((short) slot));
+    }
+
+    public static ByteBuffer removeToken(int player, int slot) {
+        return seal(ByteBuffer.allocate(5).put(REMOVE_TOKEN).putShort((short) player).putShort((short) slot));
+    }
+
+    public static ByteBuffer removeTokens(int slot) {
+        return seal(ByteBuffer.allocate(3).put(REMOVE_TOKENS).putShort((short) slot));
+    }
+
+    public static ByteBuffer countdown(long millies, boolean warn) {
+        return seal(ByteBuffer.allocate(10).put(COUNTDOWN).putLong(millies).put((byte) (warn ? 1 : 0)));
+    }
+
+    public static ByteBuffer elapsed(long millies) {
+        return seal(ByteBuffer.allocate(9).put(ELAPSED).putLong(millies));
+    }
+
+    public static ByteBuffer freeze(int player, long millies) {
+        return seal(ByteBuffer.allocate(11).put(FREEZE).putShort((short) player).putLong(millies));
+    }
+
+    public static ByteBuffer score(int player, int score) {
+        return seal(ByteBuffer.allocate(7).put(SCORE).putShort((short) player).putInt(score));
+    }
+
+    public static ByteBuffer winners(int[] players) {
+        ByteBuffer buffer = ByteBuffer.allocate(3 + 2 * players.length).put(WINNERS).putShort((short) players.length);
+        for (int player : players) buffer.putShort((short) player);
+        return seal(buffer);
+    }
+
+    private static ByteBuffer seal(ByteBuffer buffer) {
+        buffer.flip();
+        return buffer.asReadOnlyBuffer();
+    }
+}
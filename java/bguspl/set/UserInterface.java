@@ -80,6 +80,11 @@ public interface UserInterface {
      */
     void announceWinner(int[] players);
 
+    /**
+     * Restores the initial state of the user interface for another game (e.g. after a winner was announced).
+     */
+    void reset();
+
     /**
      * Programmatically closes the window.
      */
@@ -2,9 +2,14 @@ package bguspl.set;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
+/**
+ * Logs every user interface update before forwarding it. The frequent updates are logged with message parameters, so
+ * the message is only built by the log writer (see AsyncLogHandler).
+ */
 public class UserInterfaceDecorator implements UserInterface {
 
     private final Logger logger;
@@ -21,21 +26,21 @@ public class UserInterfaceDecorator implements UserInterface {
 
     @Override
     public void placeCard(int card, int slot) {
-        logger.severe("placing card " + card + " in slot " + slot);
+        logger.log(Level.SEVERE, "placing card {0,number,#} in slot {1,number,#}", new Object[]{card, slot});
         util.spin();
         if (ui != null) ui.placeCard(card, slot);
     }
 
     @Override
     public void removeCard(int slot) {
-        logger.severe("removing card from slot " + slot);
+        logger.log(Level.SEVERE, "removing card from slot {0,number,#}", slot);
         util.spin();
         if (ui != null) ui.removeCard(slot);
     }
 
     @Override
     public void placeToken(int player, int slot) {
-        logger.severe("player " + (player + 1) + " placing token on slot " + slot);
+        logger.log(Level.SEVERE, "player {0,number,#} placing token on slot {1,number,#}", new Object[]{player + 1, slot});
         util.spin();
         if (ui != null) ui.placeToken(player, slot);
     }
@@ -49,14 +54,14 @@ public class UserInterfaceDecorator implements UserInterface {
 
     @Override
     public void removeTokens(int slot) {
-        logger.severe("removing tokens from slot " + slot);
+        logger.log(Level.SEVERE, "removing tokens from slot {0,number,#}", slot);
         util.spin();
         if (ui != null) ui.removeTokens(slot);
     }
 
     @Override
     public void removeToken(int player, int slot) {
-        logger.severe("removing player " + (player + 1) + " token from slot " + slot);
+        logger.log(Level.SEVERE, "removing player {0,number,#} token from slot {1,number,#}", new Object[]{player + 1, slot});
         util.spin();
         if (ui != null) ui.removeToken(player, slot);
     }
@@ -64,27 +69,27 @@ public class UserInterfaceDecorator implements UserInterface {
     @Override
     public void setCountdown(long millies, boolean warn) {
         if (!warn || millies % 1000L == 0L)
-            logger.severe("updating countdown to " + millies);
+            logger.log(Level.SEVERE, "updating countdown to {0,number,#}", millies);
         if (ui != null) ui.setCountdown(millies, warn);
     }
 
     @Override
     public void setElapsed(long millies) {
-        logger.severe("updating elapsed time to " + millies);
+        logger.log(Level.SEVERE, "updating elapsed time to {0,number,#}", millies);
         util.spin();
         if (ui != null) ui.setElapsed(millies);
     }
 
     @Override
     public void setFreeze(int player, long millies) {
-        logger.severe("setting player " + (player + 1) + " freeze to " + millies);
+        logger.log(Level.SEVERE, "setting player {0,number,#} freeze to {1,number,#}", new Object[]{player + 1, millies});
         util.spin();
         if (ui != null) ui.setFreeze(player, millies);
     }
 
     @Override
     public void setScore(int player, int score) {
-        logger.severe("setting player " + (player + 1) + " score to " + score);
+        logger.log(Level.SEVERE, "setting player {0,number,#} score to {1,number,#}", new Object[]{player + 1, score});
         util.spin();
         if (ui != null) ui.setScore(player, score);
     }
@@ -96,6 +101,12 @@ public class UserInterfaceDecorator implements UserInterface {
         if (ui != null) ui.announceWinner(players);
     }
 
+    @Override
+    public void reset() {
+        logger.severe("resetting user interface for a new game");
+        if (ui != null) ui.reset();
+    }
+
     @Override
     public void dispose() {
         logger.severe("disposing of user interface elements");
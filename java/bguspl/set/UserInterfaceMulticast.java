@@ -0,0 +1,94 @@
+package bguspl.set;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A user interface that forwards every call to several other user interfaces (e.g. the swing window and the network).
+ */
+public class UserInterfaceMulticast implements UserInterface {
+
+    private final UserInterface[] uis;
+
+    private UserInterfaceMulticast(UserInterface[] uis) {
+        this.uis = uis;
+    }
+
+    /**
+     * Combines the given user interfaces, skipping null ones.
+     *
+     * @param uis - the user interfaces to combine (may contain nulls).
+     * @return - null if all are null, the single non-null one if there is only one, or a multicast of all of them.
+     */
+    public static UserInterface of(UserInterface... uis) {
+        UserInterface[] present = Arrays.stream(uis).filter(Objects::nonNull).toArray(UserInterface[]::new);
+        if (present.length == 0) return null;
+        if (present.length == 1) return present[0];
+        return new UserInterfaceMulticast(present);
+    }
+
+    @Override
+    public void placeCard(int card, int slot) {
+        for (UserInterface ui : uis) ui.placeCard(card, slot);
+    }
+
+    @Override
+    public void removeCard(int slot) {
+        for (UserInterface ui : uis) ui.removeCard(slot);
+    }
+
+    @Override
+    public void placeToken(int player, int slot) {
+        for (UserInterface ui : uis) ui.placeToken(player, slot);
+    }
+
+    @Override
+    public void removeTokens() {
+        for (UserInterface ui : uis) ui.removeTokens();
+    }
+
+    @Override
+    public void removeTokens(int slot) {
+        for (UserInterface ui : uis) ui.removeTokens(slot);
+    }
+
+    @Override
+    public void removeToken(int player, int slot) {
+        for (UserInterface ui : uis) ui.removeToken(player, slot);
+    }
+
+    @Override
+    public void setCountdown(long millies, boolean warn) {
+        for (UserInterface ui : uis) ui.setCountdown(millies, warn);
+    }
+
+    @Override
+    public void setElapsed(long millies) {
+        for (UserInterface ui : uis) ui.setElapsed(millies);
+    }
+
+    @Override
+    public void setFreeze(int player, long millies) {
+        for (UserInterface ui : uis) ui.setFreeze(player, millies);
+    }
+
+    @Override
+    public void setScore(int player, int score) {
+        for (UserInterface ui : uis) ui.setScore(player, score);
+    }
+
+    @Override
+    public void announceWinner(int[] players) {
+        for (UserInterface ui : uis) ui.announceWinner(players);
+    }
+
+    @Override
+    public void reset() {
+        for (UserInterface ui : uis) ui.reset();
+    }
+
+    @Override
+    public void dispose() {
+        for (UserInterface ui : uis) ui.dispose();
+    }
+}
@@ -0,0 +1,141 @@
+package bguspl.set;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A user interface that encodes every update with the binary protocol and broadcasts it to the remote clients.
+ * It also keeps a small mirror of the table so that clients joining mid-game can start from the current state.
+ */
+public class UserInterfaceNetwork implements UserInterface {
+
+    private final GameServer server;
+
+    /**
+     * Mirror of the card in each slot (-1 if none).
+     */
+    private final int[] slotToCard;
+
+    /**
+     * Mirror of the tokens on the table (per slot, per player).
+     */
+    private final boolean[][] tokens;
+
+    /**
+     * Mirror of the players scores.
+     */
+    private final int[] scores;
+
+    /**
+     * The last countdown second that was broadcast (countdown updates are only sent when the displayed value changes).
+     */
+    private long lastCountdownSecond = -1;
+
+    public UserInterfaceNetwork(Config config, GameServer server) {
+        this.server = server;
+        slotToCard = new int[config.tableSize];
+        Arrays.fill(slotToCard, -1);
+        tokens = new boolean[config.tableSize][config.players];
+        scores = new int[config.players];
+    }
+
+    /**
+     * Encodes the current state of the mirror as a single buffer of messages (for clients that have just joined), so
+     * the snapshot is queued on the connection as a whole or not at all.
+     *
+     * @return - the messages to send, back to back (in read mode).
+     */
+    public synchronized ByteBuffer snapshot() {
+        List<ByteBuffer> messages = new ArrayList<>();
+        for (int slot = 0; slot < slotToCard.length; slot++) {
+            if (slotToCard[slot] >= 0) messages.add(Protocol.placeCard(slotToCard[slot], slot));
+            for (int player = 0; player < tokens[slot].length; player++)
+                if (tokens[slot][player]) messages.add(Protocol.placeToken(player, slot));
+        }
+        for (int player = 0; player < scores.length; player++)
+            messages.add(Protocol.score(player, scores[player]));
+        int length = 0;
+        for (ByteBuffer message : messages) length += message.remaining();
+        ByteBuffer snapshot = ByteBuffer.allocate(length);
+        for (ByteBuffer message : messages) snapshot.put(message);
+        snapshot.flip();
+        return snapshot.asReadOnlyBuffer();
+    }
+
+    @Override
+    public synchronized void placeCard(int card, int slot) {
+        slotToCard[slot] = card;
+        server.broadcast(Protocol.placeCard(card, slot));
+    }
+
+    @Override
+    public synchronized void removeCard(int slot) {
+        slotToCard[slot] = -1;
+        server.broadcast(Protocol.removeCard(slot));
+    }
+
+    @Override
+    public synchronized void placeToken(int player, int slot) {
+        tokens[slot][player] = true;
+        server.broadcast(Protocol.placeToken(player, slot));
+    }
+
+    @Override
+    public synchronized void removeTokens() {
+        for (boolean[] slotTokens : tokens) Arrays.fill(slotTokens, false);
+        server.broadcast(Protocol.removeTokens(-1));
+    }
+
+    @Override
+    public synchronized void removeTokens(int slot) {
+        Arrays.fill(tokens[slot], false);
+        server.broadcast(Protocol.removeTokens(slot));
+    }
+
+    @Override
+    public synchronized void removeToken(int player, int slot) {
+        tokens[slot][player] = false;
+        server.broadcast(Protocol.removeToken(player, slot));
+    }
+
+    @Override
+    public synchronized void setCountdown(long millies, boolean warn) {
+        long second = millies / 1000L;
+        if (!warn && second == lastCountdownSecond) return;
+        lastCountdownSecond = second;
+        server.broadcast(Protocol.countdown(millies, warn));
+    }
+
+    @Override
+    public synchronized void setElapsed(long millies) {
+        server.broadcast(Protocol.elapsed(millies));
+    }
+
+    @Override
+    public synchronized void setFreeze(int player, long millies) {
+        server.broadcast(Protocol.freeze(player, millies));
+    }
+
+    @Override
+    public synchronized void setScore(int player, int score) {
+        scores[player] = score;
+        server.broadcast(Protocol.score(player, score));
+    }
+
+    @Override
+    public synchronized void announceWinner(int[] players) {
+        server.broadcast(Protocol.winners(players));
+    }
+
+    @Override
+    public void reset() {
+        // the cleared table and scores arrive as regular updates
+    }
+
+    @Override
+    public void dispose() {
+        // the server is closed by its owner
+    }
+}
@@ -0,0 +1,259 @@
+package bguspl.set;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * A user interface that feeds spectators with versioned frames instead of fine-grained calls.
+ * The ui calls only update a model of the game and mark what changed; once per frame interval the changes are encoded
+ * into a single delta frame which is handed to the publisher (so the encoding cost does not depend on the number of
+ * spectators). Spectators joining mid-game start from a snapshot frame of the whole model.
+ * <p>
+ * Frame layout (after the Protocol.FRAME opcode and the int length):
+ * long version, byte flags (1 = snapshot), short players, short tableSize, short slot count, then per slot:
+ * short slot, int card (-1 if none), token mask ((players + 7) / 8 bytes, bit i set iff player i has a token),
+ * short player count, then per player: short player, int score, long freeze millies,
+ * byte timer (1 iff followed by long countdown millies and byte warn).
+ */
+public class UserInterfaceSpectator implements UserInterface, Runnable {
+
+    private static final byte SNAPSHOT_FLAG = 1;
+
+    private final Logger logger;
+    private final Config config;
+    private final Consumer<ByteBuffer> publisher;
+    private final int maskBytes;
+
+    /**
+     * The model of the game (guarded by this).
+     */
+    private final int[] slotToCard;
+    private final BitSet[] tokens;
+    private final int[] scores;
+    private final long[] freezes;
+    private long countdown;
+    private boolean warn;
+    private boolean timerSet;
+
+    /**
+     * What changed since the last published frame (guarded by this).
+     */
+    private final BitSet dirtySlots = new BitSet();
+    private final BitSet dirtyPlayers = new BitSet();
+    private boolean dirtyTimer;
+
+    /**
+     * The version of the last published frame (guarded by this).
+     */
+    private long version;
+
+    /**
+     * The cached snapshot frame (null if the slots, the players or whether there is a timer changed since it was
+     * encoded). The countdown changes every few milliseconds, so it is patched into a copy of the frame instead.
+     */
+    private ByteBuffer snapshot;
+
+    /**
+     * True iff the frame thread should be terminated.
+     */
+    private volatile boolean terminate;
+
+    /**
+     * The class constructor.
+     *
+     * @param logger    - the logger.
+     * @param config    - the game configuration.
+     * @param publisher - receives every delta frame, in version order (a read-only buffer shared by all the spectators).
+     */
+    public UserInterfaceSpectator(Logger logger, Config config, Consumer<ByteBuffer> publisher) {
+        this.logger = logger;
+        this.config = config;
+        this.publisher = publisher;
+        maskBytes = (config.players + 7) / 8;
+        slotToCard = new int[config.tableSize];
+        Arrays.fill(slotToCard, -1);
+        tokens = new BitSet[config.tableSize];
+        Arrays.setAll(tokens, i -> new BitSet(config.players));
+        scores = new int[config.players];
+        freezes = new long[config.players];
+    }
+
+    /**
+     * The frame thread: publishes the coalesced changes once per frame interval.
+     */
+    @Override
+    public void run() {
+        while (!terminate) {
+            try {
+                Thread.sleep(config.spectatorFrameMillis);
+            } catch (InterruptedException ignored) {
+            }
+            publishFrame();
+        }
+    }
+
+    /**
+     * Stops the frame thread after its current frame.
+     */
+    public void terminate() {
+        terminate = true;
+    }
+
+    /**
+     * Encodes the pending changes as a new version and publishes it (under the lock, so versions are published in
+     * order).
+     */
+    private synchronized void publishFrame() {
+        if (dirtySlots.isEmpty() && dirtyPlayers.isEmpty() && !dirtyTimer) return;
+        version++;
+        ByteBuffer frame = encode(false, dirtySlots, dirtyPlayers, dirtyTimer);
+        dirtySlots.clear();
+        dirtyPlayers.clear();
+        dirtyTimer = false;
+        publisher.accept(frame);
+    }
+
+    /**
+     * Encodes the whole model for a spectator that has just joined. Spectators should ignore the delta frames with a
+     * version that is not greater than the snapshot version.
+     *
+     * @return - the snapshot frame: a copy of the cached one with the current version and countdown.
+     */
+    public synchronized ByteBuffer snapshot() {
+        if (snapshot == null) {
+            BitSet allSlots = new BitSet();
+            allSlots.set(0, config.tableSize);
+            BitSet allPlayers = new BitSet();
+            allPlayers.set(0, config.players);
+            snapshot = encode(true, allSlots, allPlayers, timerSet);
+        }
+        // the model did not change since the frame was encoded (but for the countdown), so it is as of this version
+        ByteBuffer frame = ByteBuffer.allocate(snapshot.remaining());
+        frame.put(snapshot.duplicate()).flip();
+        frame.putLong(1 + 4, version);
+        if (timerSet) frame.putLong(frame.limit() - 9, countdown).put(frame.limit() - 1, (byte) (warn ? 1 : 0));
+        return frame.asReadOnlyBuffer();
+    }
+
+    private ByteBuffer encode(boolean isSnapshot, BitSet slots, BitSet players, boolean timer) {
+        int length = 8 + 1 + 2 + 2 + 2 + slots.cardinality() * (2 + 4 + maskBytes)
+                + 2 + players.cardinality() * (2 + 4 + 8) + 1 + (timer ? 9 : 0);
+        ByteBuffer frame = ByteBuffer.allocate(1 + 4 + length);
+        frame.put(Protocol.FRAME).putInt(length);
+        frame.putLong(version).put(isSnapshot ? SNAPSHOT_FLAG : 0);
+        frame.putShort((short) config.players).putShort((short) config.tableSize);
+
+        frame.putShort((short) slots.cardinality());
+        for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+            frame.putShort((short) slot).putInt(slotToCard[slot]);
+            byte[] mask = tokens[slot].toByteArray();
+            for (int i = 0; i < maskBytes; i++)
+                frame.put(i < mask.length ? mask[i] : 0);
+        }
+
+        frame.putShort((short) players.cardinality());
+        for (int player = players.nextSetBit(0); player >= 0; player = players.nextSetBit(player + 1))
+            frame.putShort((short) player).putInt(scores[player]).putLong(freezes[player]);
+
+        frame.put((byte) (timer ? 1 : 0));
+        if (timer) frame.putLong(countdown).put((byte) (warn ? 1 : 0));
+
+        frame.flip();
+        return frame.asReadOnlyBuffer();
+    }
+
+    private void slotChanged(int slot) {
+        dirtySlots.set(slot);
+        snapshot = null;
+    }
+
+    private void playerChanged(int player) {
+        dirtyPlayers.set(player);
+        snapshot = null;
+    }
+
+    @Override
+    public synchronized void placeCard(int card, int slot) {
+        slotToCard[slot] = card;
+        slotChanged(slot);
+    }
+
+    @Override
+    public synchronized void removeCard(int slot) {
+        slotToCard[slot] = -1;
+        slotChanged(slot);
+    }
+
+    @Override
+    public synchronized void placeToken(int player, int slot) {
+        tokens[slot].set(player);
+        slotChanged(slot);
+    }
+
+    @Override
+    public synchronized void removeTokens() {
+        for (int slot = 0; slot < tokens.length; slot++)
+            removeTokens(slot);
+    }
+
+    @Override
+    public synchronized void removeTokens(int slot) {
+        if (tokens[slot].isEmpty()) return;
+        tokens[slot].clear();
+        slotChanged(slot);
+    }
+
+    @Override
+    public synchronized void removeToken(int player, int slot) {
+        if (!tokens[slot].get(player)) return;
+        tokens[slot].clear(player);
+        slotChanged(slot);
+    }
+
+    @Override
+    public synchronized void setCountdown(long millies, boolean warn) {
+        countdown = millies;
+        this.warn = warn;
+        if (!timerSet) snapshot = null;
+        timerSet = true;
+        dirtyTimer = true;
+    }
+
+    @Override
+    public synchronized void setElapsed(long millies) {
+        setCountdown(millies, false);
+    }
+
+    @Override
+    public synchronized void setFreeze(int player, long millies) {
+        freezes[player] = Math.max(0, millies);
+        playerChanged(player);
+    }
+
+    @Override
+    public synchronized void setScore(int player, int score) {
+        scores[player] = score;
+        playerChanged(player);
+    }
+
+    @Override
+    public synchronized void announceWinner(int[] players) {
+        // the final scores are already in the model, flush them right away
+        publishFrame();
+        publisher.accept(Protocol.winners(players));
+        logger.info("spectator feed ended at version " + version);
+    }
+
+    @Override
+    public void reset() {
+        // the cleared table and scores arrive as regular updates
+    }
+
+    @Override
+    public void dispose() {
+        terminate();
+    }
+}
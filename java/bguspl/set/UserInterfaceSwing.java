@@ -4,10 +4,11 @@ import bguspl.set.ex.Player;
 
 import javax.swing.*;
 import java.awt.*;
-import java.io.FileNotFoundException;
-import java.net.URL;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
@@ -23,18 +24,34 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
     private final PlayersPanel playersPanel;
     private final WinnerPanel winnerPanel;
     private final Config config;
+    private final Logger logger;
+    private final InputManager inputManager;
+    private final InputLatency latency;
+
+    /**
+     * The updates requested by the game threads, applied on the event dispatch thread once per frame.
+     */
+    private final PendingUpdates pending;
+    private final Timer frameTimer;
 
     static String intInBaseToPaddedString(int n, int padding, int base) {
         return format("%" + padding + "s", Integer.toString(n, base)).replace(' ', '0');
     }
 
     public UserInterfaceSwing(Logger logger, Config config, Player[] players) {
+        this(logger, config, players, new InputLatency(config));
+    }
+
+    public UserInterfaceSwing(Logger logger, Config config, Player[] players, InputLatency latency) {
 
         this.config = config;
+        this.logger = logger;
+        this.latency = latency;
         timerPanel = new TimerPanel();
-        gamePanel = new GamePanel();
+        gamePanel = new GamePanel(logger);
         playersPanel = new PlayersPanel();
         winnerPanel = new WinnerPanel();
+        pending = new PendingUpdates();
 
         setLayout(new GridBagLayout());
         GridBagConstraints gbc = new GridBagConstraints();
@@ -63,10 +80,185 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
         setLocationRelativeTo(null);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
-        addKeyListener(new InputManager(logger, config, players));
+        inputManager = new InputManager(logger, config, players);
+        addKeyListener(inputManager);
         addWindowListener(new WindowManager());
 
-        EventQueue.invokeLater(() -> setVisible(true));
+        frameTimer = new Timer(Math.max(1, 1000 / config.framesPerSecond), e -> pending.apply());
+        frameTimer.setCoalesce(true);
+        EventQueue.invokeLater(() -> {
+            setVisible(true);
+            frameTimer.start();
+        });
+    }
+
+    /**
+     * The latest requested state of every ui element that changed since the last frame. Game threads only record their
+     * updates here (under a short lock, never waiting for the rendering), so repeated updates of the same slot, timer
+     * or player within a frame collapse into a single Swing update. The frame timer applies them on the event dispatch
+     * thread.
+     */
+    private class PendingUpdates {
+
+        private final int[] cards = new int[config.tableSize];
+        private final BitSet[] tokens = new BitSet[config.tableSize];
+        private final long[] freezes = new long[config.players];
+        private final int[] scores = new int[config.players];
+        private long countdown;
+        private boolean warn;
+        private long elapsed;
+        private int[] winners;
+
+        private final BitSet dirtyCards = new BitSet();
+        private final BitSet dirtyTokens = new BitSet();
+
+        /**
+         * The time each dirty slot was first updated since the last frame (see InputLatency.Stage.UI).
+         */
+        private final long[] dirtySince = new long[config.tableSize];
+        private final BitSet dirtyFreezes = new BitSet();
+        private final BitSet dirtyScores = new BitSet();
+        private boolean dirtyCountdown;
+        private boolean dirtyElapsed;
+        private boolean dirtyReset;
+
+        private PendingUpdates() {
+            Arrays.fill(cards, -1);
+            Arrays.setAll(tokens, slot -> new BitSet(config.players));
+        }
+
+        private synchronized void placeCard(int card, int slot) {
+            cards[slot] = card;
+            markSlot(slot);
+            dirtyCards.set(slot);
+        }
+
+        private synchronized void setToken(int player, int slot, boolean placed) {
+            tokens[slot].set(player, placed);
+            markSlot(slot);
+            dirtyTokens.set(slot);
+        }
+
+        private synchronized void removeTokens(int slot) {
+            tokens[slot].clear();
+            markSlot(slot);
+            dirtyTokens.set(slot);
+        }
+
+        private void markSlot(int slot) {
+            if (!dirtyCards.get(slot) && !dirtyTokens.get(slot)) dirtySince[slot] = latency.now();
+        }
+
+        private synchronized void setCountdown(long millies, boolean warn) {
+            countdown = millies;
+            this.warn = warn;
+            dirtyCountdown = true;
+            dirtyElapsed = false;
+        }
+
+        private synchronized void setElapsed(long millies) {
+            elapsed = millies;
+            dirtyElapsed = true;
+            dirtyCountdown = false;
+        }
+
+        private synchronized void setFreeze(int player, long millies) {
+            freezes[player] = millies;
+            dirtyFreezes.set(player);
+        }
+
+        private synchronized void setScore(int player, int score) {
+            scores[player] = score;
+            dirtyScores.set(player);
+        }
+
+        private synchronized void announceWinner(int[] players) {
+            winners = players.clone();
+        }
+
+        private synchronized void reset() {
+            for (int slot = 0; slot < config.tableSize; slot++) markSlot(slot);
+            Arrays.fill(cards, -1);
+            dirtyCards.set(0, config.tableSize);
+            for (BitSet slotTokens : tokens) slotTokens.clear();
+            dirtyTokens.set(0, config.tableSize);
+            Arrays.fill(freezes, 0);
+            dirtyFreezes.set(0, config.players);
+            Arrays.fill(scores, 0);
+            dirtyScores.set(0, config.players);
+            winners = null;
+            dirtyReset = true;
+        }
+
+        /**
+         * Applies the pending updates to the Swing components (called on the event dispatch thread).
+         */
+        private void apply() {
+            int[] cardSlots, cardIds, tokenSlots, freezePlayers, scorePlayers;
+            long[] freezeMillies;
+            int[] scoreValues;
+            BitSet[] tokenPlayers;
+            long[] slotsSince;
+            long countdownMillies = 0, elapsedMillies = 0;
+            boolean countdownWarn = false, applyCountdown, applyElapsed, applyReset;
+            int[] applyWinners;
+
+            // copy the pending state under the lock, and update the components after releasing it
+            synchronized (this) {
+                cardSlots = dirtyCards.stream().toArray();
+                cardIds = Arrays.stream(cardSlots).map(slot -> cards[slot]).toArray();
+                tokenSlots = dirtyTokens.stream().toArray();
+                tokenPlayers = Arrays.stream(tokenSlots).mapToObj(slot -> (BitSet) tokens[slot].clone()).toArray(BitSet[]::new);
+                BitSet dirtySlots = (BitSet) dirtyCards.clone();
+                dirtySlots.or(dirtyTokens);
+                slotsSince = dirtySlots.stream().mapToLong(slot -> dirtySince[slot]).toArray();
+                freezePlayers = dirtyFreezes.stream().toArray();
+                freezeMillies = Arrays.stream(freezePlayers).mapToLong(player -> freezes[player]).toArray();
+                scorePlayers = dirtyScores.stream().toArray();
+                scoreValues = Arrays.stream(scorePlayers).map(player -> scores[player]).toArray();
+                applyCountdown = dirtyCountdown;
+                applyElapsed = dirtyElapsed;
+                if (applyCountdown) {
+                    countdownMillies = countdown;
+                    countdownWarn = warn;
+                }
+                if (applyElapsed) elapsedMillies = elapsed;
+                applyReset = dirtyReset;
+                applyWinners = winners;
+
+                dirtyCards.clear();
+                dirtyTokens.clear();
+                dirtyFreezes.clear();
+                dirtyScores.clear();
+                dirtyCountdown = dirtyElapsed = dirtyReset = false;
+                winners = null;
+            }
+
+            if (applyReset) {
+                winnerPanel.setVisible(false);
+                playersPanel.setVisible(true);
+                timerPanel.setVisible(true);
+            }
+            for (int i = 0; i < cardSlots.length; i++) {
+                gamePanel.setCard(cardSlots[i], cardIds[i]);
+                gamePanel.repaintSlot(cardSlots[i]);
+            }
+            for (int i = 0; i < tokenSlots.length; i++)
+                gamePanel.setTokens(tokenSlots[i], tokenPlayers[i]);
+            for (long since : slotsSince)
+                latency.record(InputLatency.Stage.UI, -1, since);
+            if (applyCountdown) timerPanel.setCountdown(countdownMillies, countdownWarn);
+            if (applyElapsed) timerPanel.setElapsed(elapsedMillies);
+            for (int i = 0; i < freezePlayers.length; i++)
+                playersPanel.setFreeze(freezePlayers[i], freezeMillies[i]);
+            for (int i = 0; i < scorePlayers.length; i++)
+                playersPanel.setScore(scorePlayers[i], scoreValues[i]);
+            if (applyWinners != null) {
+                playersPanel.setVisible(false);
+                winnerPanel.announceWinner(applyWinners);
+                winnerPanel.setVisible(true);
+            }
+        }
     }
 
     private class TimerPanel extends JPanel {
@@ -102,39 +294,43 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
 
     private class GamePanel extends JLayeredPane {
 
-        private final Image emptyCard;
-        private final Image[] deck;
-        private final Image[][] grid;
-        private final boolean[][][] playerTokens;
-        private final JLabel[][] tokenText;
+        private static final int MAX_TOKEN_LABELS = 1024;
 
-        private Image loadImageResource(String filename) {
-            URL imageResource = getClass().getClassLoader().getResource(filename);
-            if (imageResource == null)
-                throw new RuntimeException(new FileNotFoundException(filename));
-            return new ImageIcon(imageResource).getImage();
-        }
+        private final CardImages cardImages;
 
-        private GamePanel() {
+        /**
+         * The card id in each cell (-1 if empty).
+         */
+        private final int[][] grid;
 
-            setPreferredSize(new Dimension(config.columns * config.cellWidth, config.rows * config.cellHeight));
+        /**
+         * The players with a token on each slot, and the label text of each such set of players (the most recently
+         * used labels are kept, so toggling tokens builds no strings).
+         */
+        private final BitSet[] slotTokens;
+        private final Map<BitSet, String> tokenLabels = new LinkedHashMap<BitSet, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<BitSet, String> eldest) {
+                return size() > MAX_TOKEN_LABELS;
+            }
+        };
+        private final JLabel[][] tokenText;
+
+        private GamePanel(Logger logger) {
 
-            // init deck and load all pictures from png files
-            assert config.featureSize < 10; // otherwise there will be naming conflicts
+            setPreferredSize(new Dimension(config.columns * config.cellWidth, config.rows * config.cellHeight));
 
-            // load the image resources
-            deck = new Image[config.deckSize];
-            for (int i = 0; i < config.deckSize; ++i)
-                deck[i] = loadImageResource("cards/" + intInBaseToPaddedString(i, config.featureCount, config.featureSize) + ".png");
-            emptyCard = loadImageResource("cards/empty_card.png");
+            // the card images are loaded in the background and on first display
+            cardImages = new CardImages(logger, config);
 
-            grid = new Image[config.rows][config.columns];
+            grid = new int[config.rows][config.columns];
             tokenText = new JLabel[config.rows][config.columns];
-            playerTokens = new boolean[config.players][config.rows][config.columns];
+            slotTokens = new BitSet[config.tableSize];
+            Arrays.setAll(slotTokens, slot -> new BitSet());
             for (int row = 0; row < config.rows; row++) {
                 for (int column = 0; column < config.columns; column++) {
                     // init the cards on the table grid as empty cards
-                    grid[row][column] = emptyCard;
+                    grid[row][column] = -1;
 
                     // init the JLabel selection overlay
                     tokenText[row][column] = new JLabel("");
@@ -148,67 +344,66 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
             }
         }
 
-        private void placeCard(int slot, int card) {
-            int row = slot / config.columns;
-            int column = slot % config.columns;
-            grid[row][column] = deck[card];
-            validate();
-            repaint();
-        }
-
-        private void removeCard(int slot) {
+        /**
+         * Sets the card image of a slot (the caller repaints the panel).
+         *
+         * @param slot - the slot.
+         * @param card - the card id, or -1 for an empty card.
+         */
+        private void setCard(int slot, int card) {
             int row = slot / config.columns;
             int column = slot % config.columns;
-            grid[row][column] = emptyCard;
-            validate();
-            repaint();
+            grid[row][column] = card;
         }
 
-        private void placeToken(int player, int slot) {
-            int row = slot / config.columns;
-            int column = slot % config.columns;
-            playerTokens[player][row][column] = true;
-            tokenText[row][column].setText(generatePlayersTokenText(row, column));
+        /**
+         * Repaints a single slot right away when the panel is showing (called on the event dispatch thread once per
+         * frame), so the painting cost follows the number of changed slots and not the table size.
+         *
+         * @param slot - the slot.
+         */
+        private void repaintSlot(int slot) {
+            int x = (slot % config.columns) * config.cellWidth;
+            int y = (slot / config.columns) * config.cellHeight;
+            if (isShowing()) paintImmediately(x, y, config.cellWidth, config.cellHeight);
+            else repaint(x, y, config.cellWidth, config.cellHeight);
         }
 
-        private void removeTokens() {
-            for (int i = 0; i < config.tableSize; i++)
-                removeTokens(i);
+        /**
+         * Sets the tokens of all the players on a slot and updates its label (only if they changed).
+         *
+         * @param slot    - the slot.
+         * @param players - the players that have a token on the slot (owned by the panel from now on).
+         */
+        private void setTokens(int slot, BitSet players) {
+            if (players.equals(slotTokens[slot])) return;
+            slotTokens[slot] = players;
+            tokenText[slot / config.columns][slot % config.columns].setText(tokenLabel(players));
         }
 
-        private void removeTokens(int slot) {
-            int row = slot / config.columns;
-            int column = slot % config.columns;
-            for (int player = 0; player < playerTokens.length; player++) {
-                playerTokens[player][row][column] = false;
-                tokenText[row][column].setText(generatePlayersTokenText(row, column));
+        private String tokenLabel(BitSet players) {
+            String label = tokenLabels.get(players);
+            if (label == null) {
+                label = players.stream().mapToObj(player -> config.playerNames[player]).collect(Collectors.joining(", "));
+                tokenLabels.put(players, label);
             }
-        }
-
-        private void removeToken(int player, int slot) {
-            int row = slot / config.columns;
-            int column = slot % config.columns;
-            playerTokens[player][row][column] = false;
-            tokenText[row][column].setText(generatePlayersTokenText(row, column));
-        }
-
-        private String generatePlayersTokenText(int row, int column) {
-            String text = "";
-            for (int player = 0; player < config.players; player++) {
-                if (playerTokens[player][row][column])
-                    text = text.concat(config.playerNames[player] + ", ");
-            }
-            if (text.length() < 2)
-                return "";
-            return text.substring(0, text.length() - 2);
+            return label;
         }
 
         @Override
         public void paintComponent(Graphics g) {
-            // draw card images
-            for (int row = 0; row < config.rows; row++)
-                for (int column = 0; column < config.columns; column++)
-                    g.drawImage(grid[row][column], (column * config.cellWidth), (row * config.cellHeight), this);
+            // draw the card images of the slots inside the repainted region only
+            int firstRow = 0, lastRow = config.rows - 1, firstColumn = 0, lastColumn = config.columns - 1;
+            Rectangle clip = g.getClipBounds();
+            if (clip != null) {
+                firstRow = Math.max(firstRow, clip.y / config.cellHeight);
+                lastRow = Math.min(lastRow, (clip.y + clip.height - 1) / config.cellHeight);
+                firstColumn = Math.max(firstColumn, clip.x / config.cellWidth);
+                lastColumn = Math.min(lastColumn, (clip.x + clip.width - 1) / config.cellWidth);
+            }
+            for (int row = firstRow; row <= lastRow; row++)
+                for (int column = firstColumn; column <= lastColumn; column++)
+                    cardImages.draw(g, grid[row][column], (column * config.cellWidth), (row * config.cellHeight));
         }
     }
 
@@ -276,63 +471,71 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
 
     @Override
     public void placeCard(int card, int slot) {
-        gamePanel.placeCard(slot, card);
+        pending.placeCard(card, slot);
     }
 
     @Override
     public void removeCard(int slot) {
-        gamePanel.removeCard(slot);
+        pending.placeCard(-1, slot);
     }
 
     @Override
     public void placeToken(int player, int slot) {
-        gamePanel.placeToken(player, slot);
+        pending.setToken(player, slot, true);
     }
 
     @Override
     public void removeTokens() {
-        gamePanel.removeTokens();
+        for (int slot = 0; slot < config.tableSize; slot++)
+            pending.removeTokens(slot);
     }
 
     @Override
     public void removeTokens(int slot) {
-        gamePanel.removeTokens(slot);
+        pending.removeTokens(slot);
     }
 
     @Override
     public void removeToken(int player, int slot) {
-        gamePanel.removeToken(player, slot);
+        pending.setToken(player, slot, false);
     }
 
     @Override
     public void setCountdown(long millies, boolean warn) {
-        timerPanel.setCountdown(millies, warn);
+        pending.setCountdown(millies, warn);
     }
 
     @Override
     public void setElapsed(long millies) {
-        timerPanel.setElapsed(millies);
+        pending.setElapsed(millies);
     }
 
     @Override
     public void setFreeze(int player, long millies) {
-        playersPanel.setFreeze(player, millies);
+        pending.setFreeze(player, millies);
     }
 
     @Override
     public void setScore(int player, int score) {
-        playersPanel.setScore(player, score);
+        pending.setScore(player, score);
     }
 
     @Override
     public void announceWinner(int[] players) {
-        playersPanel.setVisible(false);
-        winnerPanel.announceWinner(players);
-        winnerPanel.setVisible(true);
+        pending.announceWinner(players);
+    }
+
+    @Override
+    public void reset() {
+        pending.reset();
     }
 
     @Override
     public void dispose() {
-        super.dispose();
+        EventQueue.invokeLater(() -> {
+            logger.info(inputManager.summary());
+            frameTimer.stop();
+            super.dispose();
+        });
     }
 }
@@ -3,7 +3,11 @@ package bguspl.set;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
 import java.util.stream.IntStream;
 
 /**
@@ -13,6 +17,16 @@ public class UtilImpl implements Util {
 
     private final Config config;
 
+    /**
+     * The random spins of each thread, by thread name (seeded by Config.scheduleSeed).
+     */
+    private final Map<String, Random> spins = new ConcurrentHashMap<>();
+
+    /**
+     * The largest number of cards findSets indexes up front.
+     */
+    private static final int INDEXED_CARDS = 1 << 16;
+
     public UtilImpl(Config config) {
         this.config = config;
     }
@@ -64,35 +78,125 @@ public class UtilImpl implements Util {
         return true;
     }
 
+    /**
+     * Finds the sets as the lexicographic enumeration of all the featureSize-card combinations would, without
+     * enumerating them: the cards are chosen in deck order, a partial combination is dropped as soon as one of its
+     * features is neither the same in all its cards nor different in all of them, and the last card is not searched
+     * for but computed, as featureSize - 1 cards (at least 2) leave a single value for each feature.
+     */
     @Override
     public List<int[]> findSets(List<Integer> deck, int count) {
         LinkedList<int[]> sets = new LinkedList<>();
         int n = deck.size();
         int r = config.featureSize;
+        if (r < 1 || n < r || count <= 0) return sets;
+
+        // the cards are indexed up front unless there are too many of them (a huge deck, see Deck), which are read
+        // lazily and asked for the positions themselves, so the search costs the cards it visits
+        IntFunction<int[]> features;
+        if (n <= INDEXED_CARDS) {
+            int[][] indexed = new int[n][config.featureCount];
+            for (int i = 0; i < n; ++i)
+                cardToFeatures(deck.get(i), indexed[i]);
+            features = i -> indexed[i];
+        } else {
+            features = i -> cardToFeatures(deck.get(i));
+        }
+        IntUnaryOperator position;
+        if (config.deckSize <= INDEXED_CARDS) {
+            int[] indexed = new int[config.deckSize];
+            Arrays.fill(indexed, -1);
+            for (int i = 0; i < n; ++i)
+                indexed[deck.get(i)] = i;
+            position = card -> indexed[card];
+        } else {
+            position = deck::indexOf;
+        }
+
         int[] combination = new int[r];
+        findSets(deck, features, position, combination, 0, count, sets);
+        return sets;
+    }
 
-        for (int i = 0; i < r; ++i)
-            combination[i] = i;
+    /**
+     * Extends a partial combination (whose features are each the same or different in all its cards) by a card.
+     *
+     * @param chosen - the number of deck positions in combination.
+     * @return - true iff count sets were found.
+     */
+    private boolean findSets(List<Integer> deck, IntFunction<int[]> features, IntUnaryOperator position, int[] combination, int chosen,
+                             int count, List<int[]> sets) {
+        int r = combination.length;
+        if (chosen == r) {
+            sets.add(Arrays.stream(combination).map(deck::get).sorted().toArray());
+            return sets.size() >= count;
+        }
+
+        if (chosen == r - 1 && chosen >= 2) {
+            int last = completeSet(features, combination, chosen);
+            int at = last < 0 ? -1 : position.applyAsInt(last);
+            if (at <= combination[chosen - 1]) return false;
+            combination[chosen] = at;
+            return findSets(deck, features, position, combination, chosen + 1, count, sets);
+        }
 
-        while (combination[r - 1] < deck.size()) {
-            int[] cards = Arrays.stream(combination).map(deck::get).sorted().toArray();
-            if (testSet(cards)) {
-                sets.add(cards);
-                if (sets.size() >= count) return sets;
+        // leaves room for the cards after this one
+        for (int i = chosen == 0 ? 0 : combination[chosen - 1] + 1; i <= deck.size() - r + chosen; ++i) {
+            if (!consistent(features, combination, chosen, i)) continue;
+            combination[chosen] = i;
+            if (findSets(deck, features, position, combination, chosen + 1, count, sets)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return - true iff every feature stays the same or different in all the chosen cards with the candidate.
+     */
+    private boolean consistent(IntFunction<int[]> features, int[] combination, int chosen, int candidate) {
+        if (chosen < 2) return true;
+        int[] card = features.apply(candidate), first = features.apply(combination[0]),
+                second = features.apply(combination[1]);
+        for (int f = 0; f < config.featureCount; ++f) {
+            if (first[f] == second[f]) {
+                if (card[f] != first[f]) return false;
+            } else {
+                if (card[f] == first[f] || card[f] == second[f]) return false;
+                for (int j = 2; j < chosen; ++j)
+                    if (features.apply(combination[j])[f] == card[f]) return false;
             }
+        }
+        return true;
+    }
 
-            // generate next combination in lexicographic order
-            int t = r - 1;
-            while (t != 0 && combination[t] == n - r + t) --t;
-            combination[t]++;
-            for (int i = t + 1; i < r; i++) combination[i] = combination[i - 1] + 1;
+    /**
+     * @return - the card that completes the chosen featureSize - 1 cards into a set, or -1 if no card does.
+     */
+    private int completeSet(IntFunction<int[]> features, int[] combination, int chosen) {
+        int r = config.featureSize;
+        int[] first = features.apply(combination[0]), second = features.apply(combination[1]);
+        int[] sums = new int[config.featureCount];
+        for (int j = 0; j < chosen; ++j) {
+            int[] chosenFeatures = features.apply(combination[j]);
+            for (int f = 0; f < config.featureCount; ++f)
+                sums[f] += chosenFeatures[f];
         }
-        return sets;
+        int card = 0;
+        for (int f = 0; f < config.featureCount; ++f) {
+            // if the chosen values are distinct, the missing one is the rest of 0 + 1 + ... + (r - 1)
+            int value = first[f] == second[f] ? first[f] : r * (r - 1) / 2 - sums[f];
+            if (value < 0 || value >= r) return -1;
+            card = card * r + value;
+        }
+        return card;
     }
 
     public void spin() {
         if (config.randomSpinMax <= 0) return;
-        long cycles = ThreadLocalRandom.current().nextLong(config.randomSpinMin, config.randomSpinMax);
+        // each thread draws from its own stream, so its spins repeat with the seed however the threads interleave
+        Random random = spins.computeIfAbsent(Thread.currentThread().getName(),
+                name -> new Random(config.scheduleSeed * 31 + name.hashCode()));
+        long range = config.randomSpinMax - config.randomSpinMin;
+        long cycles = config.randomSpinMin + (range > 0 ? Math.floorMod(random.nextLong(), range) : 0);
         for (int i = 0; i < cycles; ++i)
             Thread.yield();
     }
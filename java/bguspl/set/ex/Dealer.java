@@ -1,13 +1,24 @@
 package bguspl.set.ex;
 
+import bguspl.set.Config;
 import bguspl.set.Env;
-
-import java.util.List;
-import java.util.Objects;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import bguspl.set.GameEvents;
+import bguspl.set.InputLatency;
+import bguspl.set.LatencyHistogram;
+import bguspl.set.LockProfiler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Random;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 
 /**
@@ -29,7 +40,7 @@ public class Dealer implements Runnable {
     /**
      * The list of card ids that are left in the dealer's deck.
      */
-    private final List<Integer> deck;
+    private final Deck deck;
 
     /**
      * True iff game should be terminated.
@@ -43,14 +54,73 @@ public class Dealer implements Runnable {
 
     protected int playersAmount;
 
-    private Thread[] playerThread;
+    /**
+     * Runs the player and computer player threads. The pool threads are reused by the following games (see reset).
+     */
+    private final ExecutorService gameThreads;
 
-    private int SET_SIZE = 3;
+    private Future<?>[] playerTasks;
+
+    /**
+     * The number of cards in a set (Config.featureSize, so each feature can be different in all of them).
+     */
+    private final int SET_SIZE;
 
     private ArrayBlockingQueue<Player> playerSet;
 
     private Object lock;
 
+    /**
+     * True iff a snapshot was requested and the dealer should take one at its next safe point.
+     */
+    private volatile boolean snapshotRequested;
+
+    /**
+     * The time when the dealer takes the next periodic snapshot.
+     */
+    private long nextSnapshotTime = Long.MAX_VALUE;
+
+    /**
+     * Writes the snapshots to disk, so the dealer only pays for copying the state.
+     */
+    private ExecutorService snapshotWriter;
+
+    /**
+     * The time the dealer waits for the last snapshot to be written when the game ends.
+     */
+    private static final long SNAPSHOT_WRITE_SECONDS = 5;
+
+    /**
+     * Draws the cards from the deck (seeded by Config.randomSeed, so a seeded game deals the same cards).
+     */
+    private final Random random;
+
+    /**
+     * The dealer thread (null if no game runs) and the last time it made progress (see Watchdog).
+     */
+    private volatile Thread dealerThread;
+    private volatile long progressAt;
+
+    /**
+     * The dealer's metrics (see MetricsRegistry).
+     */
+    private final LongAdder claimsSubmitted;
+    private final LongAdder claimsAccepted;
+    private final LongAdder claimsRejected;
+    private final LongAdder reshuffles;
+    private final LatencyHistogram tableLockHold;
+
+    /**
+     * The contention profiling sites of the dealer's monitors (see LockProfiler).
+     */
+    private final LockProfiler.Site reshuffleSite;
+    private final LockProfiler.Site removeCardsSite;
+    private final LockProfiler.Site claimQueueSite;
+    private final LockProfiler.Site verdictSite;
+    private final LockProfiler.Site sleepSite;
+    private final LockProfiler.Site wakeSite;
+    private final LockProfiler.Site captureSite;
+
 
     public Player[] getPlayers() {
         return players;
@@ -60,16 +130,47 @@ public class Dealer implements Runnable {
         return playerSet;
     }
 
+    /**
+     * @return - true iff the game ended (or was stopped) and the dealer is tearing it down.
+     */
+    public boolean isTerminated() {
+        return terminate;
+    }
+
     public Dealer(Env env, Table table, Player[] players) {
         this.env = env;
         this.table = table;
         this.players = players;
-        deck = IntStream.range(0, env.config.deckSize).boxed().collect(Collectors.toList());
+        this.SET_SIZE = env.config.featureSize;
+        deck = new Deck(env.config.deckSize);
 
         this.playersAmount = players.length;
-        this.playerThread = new Thread[playersAmount];
+        this.playerTasks = new Future<?>[playersAmount];
+        this.gameThreads = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r);
+            thread.setDaemon(true);
+            return thread;
+        });
         this.playerSet = new ArrayBlockingQueue<Player>(players.length);
         this.lock = new Object();
+        this.random = env.config.randomSeed == 0 ? new Random() : new Random(env.config.randomSeed);
+
+        claimsSubmitted = env.metrics.counter("claims.submitted");
+        claimsAccepted = env.metrics.counter("claims.accepted");
+        claimsRejected = env.metrics.counter("claims.rejected");
+        reshuffles = env.metrics.counter("reshuffles");
+        tableLockHold = env.metrics.histogram("table.lock.dealer");
+        reshuffleSite = env.locks.site("table: Dealer.run (reshuffle)");
+        removeCardsSite = env.locks.site("table: Dealer.removeCardsFromTable");
+        claimQueueSite = env.locks.site("playerSet: Dealer.timerLoop");
+        verdictSite = env.locks.site("player: Dealer.ifSet");
+        sleepSite = env.locks.site("lock: Dealer.sleepUntilWokenOrTimeout");
+        wakeSite = env.locks.site("lock: Dealer.wakeDealer");
+        captureSite = env.locks.site("table: Dealer.capture");
+        env.metrics.gauge("claims.queued", () -> playerSet.size());
+        env.metrics.gauge("deck.size", () -> deck.size());
+        env.metrics.gauge("deck.stored", () -> deck.stored());
+        env.metrics.gauge("table.sets", table::sets);
     }
 
     /**
@@ -78,23 +179,42 @@ public class Dealer implements Runnable {
     @Override
     public void run() {
         env.logger.info("Thread " + Thread.currentThread().getName() + " starting.");
+        progressAt = System.currentTimeMillis();
+        dealerThread = Thread.currentThread();
+        if (reshuffleTime == Long.MAX_VALUE)
+            reshuffleTime = System.currentTimeMillis() + env.config.turnTimeoutMillis + 999;
+        if (!env.config.snapshotFile.isEmpty() && env.config.snapshotIntervalMillis > 0)
+            nextSnapshotTime = System.currentTimeMillis() + env.config.snapshotIntervalMillis;
         placeCardsOnTable();
         for (int i = playersAmount -1; i >= 0; i--) {
-            playerThread[i] = new Thread(players[i]);
-            playerThread[i].start();
+            Player player = players[i];
+            playerTasks[i] = execute(() -> {
+                Thread.currentThread().setName("player-" + player.id);
+                player.run();
+            });
         }
         while (!shouldFinish()) {
             timerLoop();
+            if (!terminate && env.journal != null) env.journal.reshuffle();
+            if (!terminate) reshuffles.increment();
             updateTimerDisplay(true);
-            synchronized (table) {
+            reshuffleSite.locked(table, () -> {
+                long locked = System.nanoTime();
+                GameEvents.Span reshuffling = env.events.reshuffle();
                 removeAllCardsFromTable();
                 if (terminate == false)
                     placeCardsOnTable();
-            }
+                tableLockHold.record(System.nanoTime() - locked);
+                reshuffling.commit();
+            });
         }
+        // the deck has no sets left unless the game was stopped (e.g. by the exit button)
+        boolean gameOver = env.util.findSets(deck, 1).isEmpty();
         terminate();
+        closeSnapshots(gameOver);
         removeAllCardsFromTable();
         announceWinners();
+        dealerThread = null;
         env.logger.info("Thread " + Thread.currentThread().getName() + " terminated.");
     }
 
@@ -102,24 +222,34 @@ public class Dealer implements Runnable {
      * The inner loop of the dealer thread that runs as long as the countdown did not time out.
      */
     private void timerLoop() {
-        reshuffleTime = System.currentTimeMillis() + env.config.turnTimeoutMillis + 999;
         while (!terminate && System.currentTimeMillis() < reshuffleTime) {
+            progressAt = System.currentTimeMillis();
             updateTimerDisplay(false);
             sleepUntilWokenOrTimeout();
-            Player playerId;
-            synchronized (playerSet) {
+            if (snapshotRequested || System.currentTimeMillis() >= nextSnapshotTime)
+                takeSnapshot();
+            claimQueueSite.locked(playerSet, () -> {
                 if (playerSet.size() != 0) {
-                    playerId = playerSet.remove();
+                    Player playerId = playerSet.remove();
                     ifSet(playerId.getId());
                 }
-            }
+            });
         }
     }
 
     public void ifSet(int id) {
-        synchronized (players[id]) {
+        verdictSite.locked(players[id], () -> verdict(id));
+    }
+
+    /**
+     * Checks the claim of a player and releases it with the verdict (called while holding the player's monitor).
+     *
+     * @param id - the id of the player.
+     */
+    private void verdict(int id) {
+        claimsSubmitted.increment();
         int[] cards = new int[SET_SIZE];
-        if (players[id].getPlacedCards().size() != 3)
+        if (players[id].getPlacedCards().size() != SET_SIZE)
             players[id].setSetOrNot(2);
         if (players[id].getSetOrNot() != 2) {
             int y = 0;
@@ -127,21 +257,29 @@ public class Dealer implements Runnable {
                 cards[y] = table.slotToCard[players[id].getPlacedCards().get(y)];
                 y++;
             }
+            if (env.journal != null) env.journal.claim(id, cards);
             if (env.util.testSet(cards)) { //it is a set
+                if (env.journal != null) env.journal.verdict(id, true);
+                env.latency.record(InputLatency.Stage.VERDICT, id, players[id].claimedAt());
+                claimsAccepted.increment();
+                env.events.claimVerified(id, players[id].getPlacedCards(), true);
                 players[id].setSetOrNot(1);
                 int[] slots = new int[SET_SIZE];
-                for (int i = 0; i < 3; i++)
+                for (int i = 0; i < SET_SIZE; i++)
                     slots[i] = players[id].getPlacedCards().get(i);
                 removeCardsFromTable(slots);
                 if (!terminate)
                     placeCardsOnTable();
                 reshuffleTime = System.currentTimeMillis() + env.config.turnTimeoutMillis + 999;
             } else { //not set
+                if (env.journal != null) env.journal.verdict(id, false);
+                env.latency.record(InputLatency.Stage.VERDICT, id, players[id].claimedAt());
+                claimsRejected.increment();
+                env.events.claimVerified(id, players[id].getPlacedCards(), false);
                 players[id].setSetOrNot(0);
             }
         }
         players[id].releasePlayer();
-        }
     }
 
     public boolean partOfSet(Player temp, int[] cards) {
@@ -152,24 +290,194 @@ public class Dealer implements Runnable {
         return false;
     }
 
+    /**
+     * Stops the snapshot writer once its last snapshot is written, and deletes the snapshot if the game is over, so a
+     * restart with Config.snapshotRestore starts a new game rather than resuming a finished one.
+     *
+     * @param gameOver - true iff the game ended because there are no sets left.
+     */
+    private void closeSnapshots(boolean gameOver) {
+        if (snapshotWriter != null) {
+            snapshotWriter.shutdown();
+            try {
+                snapshotWriter.awaitTermination(SNAPSHOT_WRITE_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+            }
+        }
+        snapshotWriter = null;
+        if (gameOver && !env.config.snapshotFile.isEmpty()) try {
+            Files.deleteIfExists(Paths.get(env.config.snapshotFile));
+        } catch (IOException e) {
+            env.logger.severe("cannot delete the game snapshot: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Asks the dealer to take a snapshot of the game at its next safe point (between table transitions).
+     */
+    public void requestSnapshot() {
+        snapshotRequested = true;
+        wakeDealer();
+    }
+
+    /**
+     * Copies the game state and hands the copy to the snapshot writer. Called by the dealer thread between table
+     * transitions, so the deck and the table cannot change while they are copied.
+     */
+    private void takeSnapshot() {
+        snapshotRequested = false;
+        if (env.config.snapshotIntervalMillis > 0)
+            nextSnapshotTime = System.currentTimeMillis() + env.config.snapshotIntervalMillis;
+        if (env.config.snapshotFile.isEmpty()) return;
+
+        GameSnapshot snapshot = capture();
+        if (snapshotWriter == null)
+            snapshotWriter = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "snapshot-writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        snapshotWriter.execute(() -> {
+            try {
+                snapshot.write(Paths.get(env.config.snapshotFile));
+            } catch (IOException e) {
+                env.logger.severe("error writing game snapshot: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * @return - a copy of the current game state.
+     */
+    GameSnapshot capture() {
+        int[] slots = new int[env.config.tableSize];
+        captureSite.locked(table, () -> {
+            for (int i = 0; i < slots.length; i++)
+                slots[i] = table.slotToCard[i] == null ? -1 : table.slotToCard[i];
+        });
+        int[] scores = new int[playersAmount];
+        for (int i = 0; i < playersAmount; i++)
+            scores[i] = players[i].score();
+        long now = System.currentTimeMillis();
+        return new GameSnapshot(env.config, now, Math.max(0, reshuffleTime - now), new Deck(deck), slots, scores);
+    }
+
+    /**
+     * @return - the dealer thread (null if no game runs).
+     */
+    Thread thread() {
+        return dealerThread;
+    }
+
+    /**
+     * @return - the last time the dealer thread made progress.
+     */
+    long progressAt() {
+        return progressAt;
+    }
+
+    /**
+     * Describes the game state for the watchdog reports. The state is read without locking (the threads holding the
+     * locks may be the ones that are stuck), so it may be slightly inconsistent.
+     *
+     * @param now - the current time.
+     * @return - the game state, one entity per line.
+     */
+    String summary(long now) {
+        String nl = System.lineSeparator();
+        Thread dealerThread = this.dealerThread;
+        StringBuilder summary = new StringBuilder("game state:").append(nl);
+        summary.append("  dealer: ").append(describe(dealerThread)).append(", last progress ")
+                .append(Math.max(0, now - progressAt)).append("ms ago, terminate ").append(terminate)
+                .append(", deck ").append(deck.size()).append(" cards, reshuffle in ")
+                .append(reshuffleTime == Long.MAX_VALUE ? "-" : (reshuffleTime - now) + "ms")
+                .append(", claims queued ").append(playerSet.size()).append(nl);
+        summary.append("  table: ").append(Arrays.toString(table.slotToCard)).append(", can press ")
+                .append(table.canPress).append(nl);
+        for (Player player : players) {
+            if (player == null) continue;
+            summary.append("  player ").append(player.id).append(": ").append(describe(player.thread()))
+                    .append(", last progress ").append(Math.max(0, now - player.progressAt())).append("ms ago, score ")
+                    .append(player.score()).append(", queued keys ").append(player.getActions().size())
+                    .append(", tokens ").append(player.getPlacedCards().size()).append(", awaiting verdict ")
+                    .append(player.awaitingVerdict()).append(", verdict ").append(player.getSetOrNot()).append(nl);
+        }
+        return summary.toString();
+    }
+
+    private static String describe(Thread thread) {
+        return thread == null ? "not running" : "thread " + thread.getName() + " " + thread.getState();
+    }
+
+    /**
+     * Resumes a game from a snapshot, into this dealer, its table and its players. Must be called before the dealer
+     * thread is started.
+     *
+     * @param snapshot - the snapshot to restore.
+     * @throws IllegalArgumentException - if the snapshot was taken from a game with a different configuration.
+     */
+    public void restore(GameSnapshot snapshot) {
+        if (!snapshot.matches(env.config))
+            throw new IllegalArgumentException("the snapshot does not match the game configuration");
+        deck.restore(snapshot.deck.size(), snapshot.deck.arrangement());
+        table.restore(snapshot.slotToCard);
+        for (int i = 0; i < playersAmount; i++)
+            players[i].restoreScore(snapshot.scores[i]);
+        reshuffleTime = System.currentTimeMillis() + snapshot.reshuffleRemainingMillis;
+        env.logger.info("game restored from a snapshot taken at " + snapshot.takenMillis);
+    }
+
     /**
      * Called when the game should be terminated.
      */
     public void terminate() {
         // TODO implement
         terminate = true;
+        // signal every player before joining any of them, so they all wind down at the same time
         for (int i = 0; i < players.length; i++) {
-                players[i].terminate();
                 players[i].setSetOrNot(2);
-                playerThread[i].interrupt();
+                players[i].terminate();
+        }
+        for (int i = 0; i < players.length; i++) {
                try {
-                   playerThread[i].join();
-               } catch (InterruptedException e) {
+                   if (playerTasks[i] != null) playerTasks[i].get();
+               } catch (InterruptedException | ExecutionException e) {
                }
-
         }
     }
 
+    /**
+     * Runs a task on one of the pooled game threads.
+     *
+     * @param task - the task to run.
+     * @return - the future of the task (completes when the task returns).
+     */
+    public Future<?> execute(Runnable task) {
+        return gameThreads.submit(task);
+    }
+
+    /**
+     * Prepares this dealer, its table and its players for another game in the same process, reusing the pooled
+     * threads and the user interface. Must be called after the previous game ended.
+     */
+    public void reset() {
+        terminate = false;
+        reshuffleTime = Long.MAX_VALUE;
+        nextSnapshotTime = Long.MAX_VALUE;
+        snapshotRequested = false;
+        deck.refill();
+        playerSet.clear();
+        table.reset();
+        for (Player player : players) player.reset();
+    }
+
+    /**
+     * Stops the pooled game threads (called once no more games will be played).
+     */
+    public void shutdown() {
+        gameThreads.shutdownNow();
+    }
+
     /**
      * Check if the game should be terminated or the game end conditions are met.
      *
@@ -184,11 +492,13 @@ public class Dealer implements Runnable {
      */
     private void removeCardsFromTable(int[] slots) {
         // TODO implement
-        synchronized (table) {
+        removeCardsSite.locked(table, () -> {
+            long locked = System.nanoTime();
             for (int i = 0; i < SET_SIZE; i++) {
                 table.removeCard(slots[i], players);
             }
-        }
+            tableLockHold.record(System.nanoTime() - locked);
+        });
         if (shouldFinish())
             terminate = true;
     }
@@ -198,14 +508,14 @@ public class Dealer implements Runnable {
      */
     protected void placeCardsOnTable() {
         // TODO implement
-        Random rand = new Random();
         for (int i = 0; i < env.config.tableSize; i++) {
             if (table.slotToCard[i] == null) {
                 if (deck.size() >= 1) {
-                    int deckOut = rand.nextInt(deck.size());
+                    int deckOut = random.nextInt(deck.size());
                     int putCard = deck.get(deckOut);
                     table.placeCard(putCard, i);
                     deck.remove(deckOut);
+                    progressAt = System.currentTimeMillis();
                 }
             }
         }
@@ -218,19 +528,20 @@ public class Dealer implements Runnable {
      */
     private void sleepUntilWokenOrTimeout() {
         // TODO implement
-        synchronized (lock) {
-            try {
-                lock.wait(10);
-            } catch (InterruptedException e) {
-                System.out.println(" dealer was interrupted from sleepUntil");
-            }
+        GameEvents.Span sleeping = env.events.dealerSleep();
+        try {
+            sleepSite.locked(lock, hold -> {
+                hold.await(10);
+                return null;
+            });
+        } catch (InterruptedException e) {
+            System.out.println(" dealer was interrupted from sleepUntil");
         }
+        sleeping.commit();
     }
 
     public void wakeDealer() {
-        synchronized (lock) {
-            lock.notifyAll();
-        }
+        wakeSite.locked(lock, () -> lock.notifyAll());
     }
 
     /**
@@ -238,10 +549,11 @@ public class Dealer implements Runnable {
      */
     private void updateTimerDisplay(boolean reset) {
         // TODO implement
+        Config config = env.config;
         if (reset == true) {
-            env.ui.setCountdown(env.config.turnTimeoutMillis + 999, false);
-            reshuffleTime = System.currentTimeMillis() + env.config.turnTimeoutMillis + 999;
-        } else if (reshuffleTime - System.currentTimeMillis() < env.config.turnTimeoutWarningMillis) {
+            env.ui.setCountdown(config.turnTimeoutMillis + 999, false);
+            reshuffleTime = System.currentTimeMillis() + config.turnTimeoutMillis + 999;
+        } else if (reshuffleTime - System.currentTimeMillis() < config.turnTimeoutWarningMillis) {
             env.ui.setCountdown(reshuffleTime - System.currentTimeMillis(), true);
         } else {
             env.ui.setCountdown(reshuffleTime - System.currentTimeMillis(), false);
@@ -259,6 +571,7 @@ public class Dealer implements Runnable {
                 if (!terminate)
                     deck.add(temp);
                 table.removeCard(i, players);
+                progressAt = System.currentTimeMillis();
             }
             for (int j = 0; j < playersAmount; j++) {
                 table.removeToken(players[j].getId(), i, players);
@@ -0,0 +1,215 @@
+package bguspl.set.ex;
+
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * The dealer's deck: a subset of the card ids 0 .. cards - 1, which are never materialised. The ids are kept as a
+ * permutation of the positions 0 .. cards - 1 whose first size positions hold the cards in the deck, and only the
+ * positions and cards that moved away from the identity are stored, so the memory is proportional to the cards that
+ * were dealt rather than to the size of the deck (e.g. the 8^9 cards of 9 features of 8 values).
+ * <p>
+ * remove(index) moves the last card of the deck into the removed card's position (the dealer draws at random positions,
+ * so the order of the deck does not matter), and indexOf and contains take constant time.
+ */
+public class Deck extends AbstractList<Integer> implements RandomAccess {
+
+    /**
+     * The number of card ids (Config.deckSize).
+     */
+    private final int cards;
+
+    /**
+     * The number of cards in the deck (the first size positions).
+     */
+    private int size;
+
+    /**
+     * The card in each position and the position of each card, for the ones that are not in their own position.
+     */
+    private final Map<Integer, Integer> cardAt = new HashMap<>();
+    private final Map<Integer, Integer> positionOf = new HashMap<>();
+
+    /**
+     * The class constructor.
+     *
+     * @param cards - the number of card ids (all of them are in the deck).
+     */
+    public Deck(int cards) {
+        this.cards = cards;
+        this.size = cards;
+    }
+
+    /**
+     * A copy of another deck (e.g. for a snapshot), which takes memory proportional to its stored positions.
+     *
+     * @param deck - the deck to copy.
+     */
+    public Deck(Deck deck) {
+        this.cards = deck.cards;
+        this.size = deck.size;
+        cardAt.putAll(deck.cardAt);
+        positionOf.putAll(deck.positionOf);
+    }
+
+    /**
+     * Puts all the cards back in the deck, in the order of their ids.
+     */
+    public void refill() {
+        cardAt.clear();
+        positionOf.clear();
+        size = cards;
+        modCount++;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Integer get(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        return cardAt.getOrDefault(index, index);
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        if (!(o instanceof Integer)) return -1;
+        int card = (Integer) o;
+        if (card < 0 || card >= cards) return -1;
+        int position = positionOf.getOrDefault(card, card);
+        return position < size ? position : -1;
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        return indexOf(o);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o) >= 0;
+    }
+
+    /**
+     * Removes the card in the given position, and moves the last card of the deck into it.
+     *
+     * @param index - the position of the card.
+     * @return - the card removed.
+     */
+    @Override
+    public Integer remove(int index) {
+        int card = get(index);
+        swap(index, size - 1);
+        size--;
+        modCount++;
+        return card;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        int index = indexOf(o);
+        if (index < 0) return false;
+        remove(index);
+        return true;
+    }
+
+    /**
+     * Returns a card to the deck, as its last card.
+     *
+     * @param card - a card id that is not in the deck.
+     * @return - true iff the card was added (false if it is already in the deck).
+     */
+    @Override
+    public boolean add(Integer card) {
+        if (card < 0 || card >= cards) throw new IllegalArgumentException("card " + card + " of " + cards);
+        int position = positionOf.getOrDefault(card, card);
+        if (position < size) return false;
+        swap(position, size);
+        size++;
+        modCount++;
+        return true;
+    }
+
+    /**
+     * Takes all the cards out of the deck. With no cards in the deck any order of the positions will do, so the stored
+     * positions are dropped as well.
+     */
+    @Override
+    public void clear() {
+        cardAt.clear();
+        positionOf.clear();
+        size = 0;
+        modCount++;
+    }
+
+    /**
+     * @return - the number of positions that are stored (for the memory gauge).
+     */
+    public int stored() {
+        return cardAt.size();
+    }
+
+    /**
+     * @return - the card in each position that holds another card than its own id (a read-only view), which with
+     *           size() describes the whole deck.
+     */
+    public Map<Integer, Integer> arrangement() {
+        return Collections.unmodifiableMap(cardAt);
+    }
+
+    /**
+     * Replaces the deck with one described by arrangement() and size() (e.g. of a snapshot).
+     *
+     * @param size        - the number of cards in the deck.
+     * @param arrangement - the card in each position that holds another card than its own id.
+     * @throws IllegalArgumentException - if the size or a card or position is out of range, or the arrangement is not
+     *                                  a permutation of its positions (the deck is left unchanged).
+     */
+    public void restore(int size, Map<Integer, Integer> arrangement) {
+        if (size < 0 || size > cards) throw new IllegalArgumentException("deck size " + size + " of " + cards);
+        Map<Integer, Integer> positions = new HashMap<>();
+        for (Map.Entry<Integer, Integer> entry : arrangement.entrySet()) {
+            int position = entry.getKey();
+            int card = entry.getValue();
+            if (position < 0 || position >= cards || card < 0 || card >= cards)
+                throw new IllegalArgumentException("card " + card + " in position " + position + " of " + cards);
+            if (card == position)
+                throw new IllegalArgumentException("card " + card + " is stored in its own position");
+            if (positions.put(card, position) != null)
+                throw new IllegalArgumentException("card " + card + " is in two positions");
+        }
+        // the cards are distinct, so they are a permutation of the positions iff each of them is a stored position
+        for (int card : positions.keySet())
+            if (!arrangement.containsKey(card))
+                throw new IllegalArgumentException("card " + card + " is also in its own position");
+        cardAt.clear();
+        cardAt.putAll(arrangement);
+        positionOf.clear();
+        positionOf.putAll(positions);
+        this.size = size;
+        modCount++;
+    }
+
+    private void swap(int first, int second) {
+        if (first == second) return;
+        int firstCard = cardAt.getOrDefault(first, first);
+        int secondCard = cardAt.getOrDefault(second, second);
+        place(secondCard, first);
+        place(firstCard, second);
+    }
+
+    private void place(int card, int position) {
+        if (card == position) {
+            cardAt.remove(position);
+            positionOf.remove(card);
+        } else {
+            cardAt.put(position, card);
+            positionOf.put(card, position);
+        }
+    }
+}
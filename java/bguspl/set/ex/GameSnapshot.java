@@ -0,0 +1,191 @@
+package bguspl.set.ex;
+
+import bguspl.set.Config;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable copy of the game state needed to resume a game: the dealer's deck, the cards on the table, the players
+ * scores and the time left until the next reshuffle (tokens and frozen players are not kept).
+ * <p>
+ * Binary layout: int MAGIC, short VERSION, short featureCount, short featureSize, short tableSize, short players,
+ * long time taken (epoch millies), long millies left until the reshuffle, int deck count, int count of the stored deck
+ * positions followed by their int position and int card pairs (see Deck.arrangement, so the snapshot grows with the
+ * cards that were dealt rather than with the deck), tableSize ints of the card in each slot (-1 if none) and players
+ * ints of scores.
+ */
+public class GameSnapshot {
+
+    public static final int MAGIC = 0x53455453; // "SETS"
+    public static final short VERSION = 2;
+
+    public final int featureCount;
+    public final int featureSize;
+    public final int tableSize;
+    public final int players;
+    public final long takenMillis;
+    public final long reshuffleRemainingMillis;
+
+    final Deck deck;
+    final int[] slotToCard;
+    final int[] scores;
+
+    GameSnapshot(Config config, long takenMillis, long reshuffleRemainingMillis, Deck deck, int[] slotToCard, int[] scores) {
+        this(config.featureCount, config.featureSize, config.tableSize, config.players, takenMillis,
+                reshuffleRemainingMillis, deck, slotToCard, scores);
+    }
+
+    private GameSnapshot(int featureCount, int featureSize, int tableSize, int players, long takenMillis,
+                         long reshuffleRemainingMillis, Deck deck, int[] slotToCard, int[] scores) {
+        this.featureCount = featureCount;
+        this.featureSize = featureSize;
+        this.tableSize = tableSize;
+        this.players = players;
+        this.takenMillis = takenMillis;
+        this.reshuffleRemainingMillis = reshuffleRemainingMillis;
+        this.deck = deck;
+        this.slotToCard = slotToCard;
+        this.scores = scores;
+    }
+
+    /**
+     * Checks that the snapshot was taken from a game with the same geometry as the configuration.
+     *
+     * @param config - the game configuration.
+     * @return - true iff the snapshot can be restored into a game with this configuration.
+     */
+    public boolean matches(Config config) {
+        return featureCount == config.featureCount && featureSize == config.featureSize
+                && tableSize == config.tableSize && players == config.players;
+    }
+
+    public ByteBuffer encode() {
+        Map<Integer, Integer> arrangement = deck.arrangement();
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 2 * 5 + 8 + 8 + 4 + 4 + 8 * arrangement.size()
+                + 4 * (tableSize + players));
+        buffer.putInt(MAGIC).putShort(VERSION)
+                .putShort((short) featureCount).putShort((short) featureSize)
+                .putShort((short) tableSize).putShort((short) players)
+                .putLong(takenMillis).putLong(reshuffleRemainingMillis)
+                .putInt(deck.size()).putInt(arrangement.size());
+        for (Map.Entry<Integer, Integer> entry : arrangement.entrySet())
+            buffer.putInt(entry.getKey()).putInt(entry.getValue());
+        for (int card : slotToCard) buffer.putInt(card);
+        for (int score : scores) buffer.putInt(score);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Decodes a snapshot and checks it is consistent (the file may be corrupt or from another build).
+     *
+     * @throws IOException - if the buffer is not a valid snapshot: its geometry, its deck count or a card is out of
+     *                     range, the deck positions are not a permutation, or a card is both in the deck and on the
+     *                     table (or twice on the table).
+     */
+    public static GameSnapshot decode(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < 4 + 2 || buffer.getInt() != MAGIC)
+            throw new IOException("not a game snapshot");
+        short version = buffer.getShort();
+        if (version != VERSION)
+            throw new IOException("unsupported snapshot version " + version);
+        int featureCount = buffer.getShort();
+        int featureSize = buffer.getShort();
+        int tableSize = buffer.getShort();
+        int players = buffer.getShort();
+        long takenMillis = buffer.getLong();
+        long reshuffleRemainingMillis = buffer.getLong();
+        if (featureCount < 1 || featureSize < 1 || tableSize < 0 || players < 0)
+            throw new IOException("invalid snapshot geometry");
+        int deckSize = deckSize(featureCount, featureSize);
+        int count = buffer.getInt();
+        if (count < 0 || count > deckSize)
+            throw new IOException("invalid snapshot deck count " + count);
+        int stored = buffer.getInt();
+        if (stored < 0 || stored > deckSize || stored > buffer.remaining() / 8)
+            throw new IOException("invalid snapshot deck positions count " + stored);
+        Map<Integer, Integer> arrangement = new HashMap<>();
+        for (int i = 0; i < stored; i++) {
+            int position = buffer.getInt();
+            if (arrangement.put(position, buffer.getInt()) != null)
+                throw new IOException("snapshot deck position " + position + " appears twice");
+        }
+        Deck deck = new Deck(deckSize);
+        try {
+            deck.restore(count, arrangement);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("invalid snapshot deck: " + e.getMessage());
+        }
+        Set<Integer> placed = new HashSet<>();
+        int[] slotToCard = new int[tableSize];
+        for (int i = 0; i < tableSize; i++) {
+            int card = buffer.getInt();
+            slotToCard[i] = card == -1 ? -1 : card(card, deckSize, deck, placed);
+        }
+        int[] scores = new int[players];
+        for (int i = 0; i < players; i++) scores[i] = buffer.getInt();
+        return new GameSnapshot(featureCount, featureSize, tableSize, players, takenMillis, reshuffleRemainingMillis,
+                deck, slotToCard, scores);
+    }
+
+    /**
+     * @return - the number of cards in a deck of the given geometry.
+     * @throws IOException - if the deck is too large for int card ids.
+     */
+    private static int deckSize(int featureCount, int featureSize) throws IOException {
+        int cards = 1;
+        try {
+            for (int i = 0; i < featureCount; i++)
+                cards = Math.multiplyExact(cards, featureSize);
+        } catch (ArithmeticException e) {
+            throw new IOException("invalid snapshot geometry " + featureSize + "^" + featureCount);
+        }
+        return cards;
+    }
+
+    /**
+     * Checks a table card read from a snapshot.
+     *
+     * @param deck   - the deck read from the snapshot.
+     * @param placed - the table cards read so far (the card is added).
+     * @return - the card.
+     * @throws IOException - if the card is out of range, in the deck or was already read.
+     */
+    private static int card(int card, int deckSize, Deck deck, Set<Integer> placed) throws IOException {
+        if (card < 0 || card >= deckSize)
+            throw new IOException("snapshot card " + card + " is not in [0, " + deckSize + ")");
+        if (deck.contains(card))
+            throw new IOException("snapshot card " + card + " is both in the deck and on the table");
+        if (!placed.add(card))
+            throw new IOException("snapshot card " + card + " appears twice on the table");
+        return card;
+    }
+
+    /**
+     * Writes the snapshot to a file, replacing the previous one atomically (a crash never leaves a half written file).
+     *
+     * @param file - the snapshot file.
+     */
+    public void write(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temp, encode().array());
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static GameSnapshot read(Path file) throws IOException {
+        try {
+            return decode(ByteBuffer.wrap(Files.readAllBytes(file)));
+        } catch (BufferUnderflowException e) {
+            throw new IOException("truncated game snapshot " + file);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package bguspl.set.ex;
+
+import bguspl.set.Config;
+import bguspl.set.Env;
+import bguspl.set.UserInterface;
+import bguspl.set.UserInterfaceDecorator;
+import bguspl.set.Util;
+import bguspl.set.UtilImpl;
+
+import java.util.Properties;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * A game without a window, for the load and stress tests and the benchmarks. The game is built as Main builds it, from
+ * the given properties (the players below HumanPlayers are human, the others are computer players), with a logger
+ * that is not printed and the user interface updates passed to an observer (see UserInterfaceAdapter).
+ */
+public class HeadlessGame {
+
+    public final Config config;
+    public final Env env;
+    public final Table table;
+    public final Dealer dealer;
+    public final Player[] players;
+
+    /**
+     * The class constructor.
+     *
+     * @param properties - the configuration.
+     * @param ui         - the user interface that observes the game, or null for none.
+     */
+    public HeadlessGame(Properties properties, UserInterface ui) {
+        Logger logger = Logger.getAnonymousLogger();
+        logger.setUseParentHandlers(false);
+        config = new Config(logger, properties);
+        Util util = new UtilImpl(config);
+        env = new Env(logger, config, new UserInterfaceDecorator(logger, util, ui), util);
+        table = new Table(env);
+        players = new Player[config.players];
+        dealer = new Dealer(env, table, players);
+        for (int i = 0; i < players.length; i++)
+            players[i] = new Player(env, dealer, table, i, i < config.humanPlayers);
+    }
+
+    /**
+     * Runs the dealer on a pooled game thread.
+     *
+     * @return - the future of the dealer (completes when the game ended).
+     */
+    public Future<?> start() {
+        return dealer.execute(() -> {
+            Thread.currentThread().setName("dealer");
+            dealer.run();
+        });
+    }
+}
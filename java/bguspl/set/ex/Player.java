@@ -1,11 +1,19 @@
 package bguspl.set.ex;
 
 import bguspl.set.Env;
+import bguspl.set.GameEvents;
+import bguspl.set.InputLatency;
+import bguspl.set.LatencyHistogram;
+import bguspl.set.LockProfiler;
 
 
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 import java.util.Random;
 
 /**
@@ -36,12 +44,17 @@ public class Player implements Runnable {
     /**
      * The thread representing the current player.
      */
-    private Thread playerThread;
+    private volatile Thread playerThread;
 
     /**
-     * The thread of the AI (computer) player (an additional thread used to generate key presses).
+     * The task of the AI (computer) player (an additional pooled thread used to generate key presses).
      */
-    private Thread aiThread;
+    private Future<?> aiTask;
+
+    /**
+     * The pooled thread running the AI task while it runs (unparked on terminate, as it may be pacing its presses).
+     */
+    private volatile Thread aiThread;
 
     /**
      * True iff the player is human (not a computer player).
@@ -61,6 +74,45 @@ public class Player implements Runnable {
     private List<Integer> placedCards;
     private ArrayBlockingQueue<Integer> actions;
 
+    /**
+     * The time each queued key press was made (a ring parallel to actions, guarded by the actions lock), the time the
+     * key press the player thread took last was made, and the time the last claim was submitted to the dealer (see
+     * InputLatency).
+     */
+    private final long[] pressedAt;
+    private int pressedHead;
+    private long takenPressedAt;
+    private volatile long claimedAt;
+
+    /**
+     * The last time the player thread made progress, and whether it waits for the dealer's verdict (see Watchdog).
+     */
+    private volatile long progressAt;
+    private volatile boolean awaitingVerdict;
+
+    /**
+     * The number of verdicts the player thread has handled (only written by the player thread).
+     */
+    private volatile long verdicts;
+
+    /**
+     * The freeze metrics (see MetricsRegistry).
+     */
+    private final LongAdder freezeMillis;
+    private final LatencyHistogram freezes;
+
+    /**
+     * The contention profiling sites of the player's monitors (see LockProfiler).
+     */
+    private final LockProfiler.Site releaseSite;
+    private final LockProfiler.Site takeActionSite;
+    private final LockProfiler.Site claimQueueSite;
+    private final LockProfiler.Site verdictSite;
+    private final LockProfiler.Site terminateSite;
+    private final LockProfiler.Site keyPressSite;
+    private final LockProfiler.Site offerKeySite;
+    private final LockProfiler.Site penaltySite;
+
     private int setOrNot;
 
     public int getId() {
@@ -84,9 +136,7 @@ public class Player implements Runnable {
     }
 
     public void releasePlayer() {
-        synchronized (this) {
-            notifyAll();
-        }
+        releaseSite.locked(this, () -> notifyAll());
     }
 
     public boolean getTerminate(){
@@ -109,7 +159,19 @@ public class Player implements Runnable {
         this.human = human;
 
         this.placedCards = new LinkedList<>();
-        this.actions = new ArrayBlockingQueue<>(3);
+        // a key press per card of a set
+        this.actions = new ArrayBlockingQueue<>(env.config.featureSize);
+        this.pressedAt = new long[env.config.featureSize];
+        this.freezeMillis = env.metrics.counter("player.freeze.millis");
+        this.freezes = env.metrics.histogram("player.freeze");
+        this.releaseSite = env.locks.site("player: Player.releasePlayer");
+        this.takeActionSite = env.locks.site("actions: Player.run");
+        this.claimQueueSite = env.locks.site("playerSet: Player.run");
+        this.verdictSite = env.locks.site("player: Player.run");
+        this.terminateSite = env.locks.site("actions: Player.terminate");
+        this.keyPressSite = env.locks.site("actions: Player.keyPressed");
+        this.offerKeySite = env.locks.site("actions: Player.offerKeyPress");
+        this.penaltySite = env.locks.site("actions: Player.penalty");
         this.dealer = dealer;
         this.setOrNot = -1; // 0 = not a set, 1 = is a set, 2 = card was taken, -1 = nutral
     }
@@ -120,47 +182,62 @@ public class Player implements Runnable {
     @Override
     public void run() {
         playerThread = Thread.currentThread();
+        progressAt = System.currentTimeMillis();
         env.logger.info("Thread " + Thread.currentThread().getName() + " starting.");
         if (!human) createArtificialIntelligence();
-        int tempSlot = 0;
         try {
             while (!terminate) {
                 // TODO implement main player loop
-                synchronized (actions) {
-                    while (actions.isEmpty()) {
+                Integer action = takeActionSite.locked(actions, hold -> {
+                    while (actions.isEmpty() && !terminate) {
                         try {
                             actions.notifyAll();
-                            actions.wait();
+                            hold.await();
                         } catch (InterruptedException ex) {
                             System.out.println(Thread.currentThread().getName() + " i am waiting for the queue not to br empty");
                             break;
                         }
                     }
                     if (terminate && actions.size() == 0)
-                        break;
-                    tempSlot = actions.poll();
+                        return null;
+                    takenPressedAt = pressedAt[pressedHead];
+                    int slot = dequeue();
                     if (!human) {
                         actions.notifyAll();
                     }
-                }
+                    return slot;
+                });
+                if (action == null)
+                    break;
+                int tempSlot = action;
+                long pressedTime = takenPressedAt;
+                progressAt = System.currentTimeMillis();
+                long dequeuedTime = env.latency.now();
+                env.latency.record(InputLatency.Stage.QUEUED, id, pressedTime);
                 if (!table.removeToken(id, tempSlot, dealer.getPlayers())) {
-                    if (placedCards.size() < 3) {
-                        placedCards.add(tempSlot);
-                        table.placeToken(id, tempSlot, dealer.getPlayers());
-                        if (placedCards.size() == 3) {
-                            synchronized (dealer.getPlayerSet()) {
-                                dealer.getPlayerSet().add(this);
-                            }
-                            synchronized (this) {
-                                    dealer.wakeDealer();
-                                    while (setOrNot == -1) {
-                                        wait();
-                                    }
-                            }
+                    if (table.placeToken(id, tempSlot, dealer.getPlayers())) {
+                        env.latency.record(InputLatency.Stage.TOKEN, id, dequeuedTime);
+                        env.latency.record(InputLatency.Stage.INPUT, id, pressedTime);
+                        if (placedCards.size() == env.config.featureSize) {
+                            claimedAt = System.nanoTime();
+                            GameEvents.Span claim = env.events.claim(id, placedCards);
+                            awaitingVerdict = true;
+                            claimQueueSite.locked(dealer.getPlayerSet(), () -> dealer.getPlayerSet().add(this));
+                            verdictSite.locked(this, hold -> {
+                                dealer.wakeDealer();
+                                while (setOrNot == -1 && !terminate) {
+                                    hold.await();
+                                }
+                                return null;
+                            });
+                            awaitingVerdict = false;
+                            claim.commit();
+                            progressAt = System.currentTimeMillis();
                             if (setOrNot == 1)
                                 point();
                             else if (setOrNot == 0)
                                 penalty();
+                            verdicts++;
                         }
                         setOrNot = -1;
                     } 
@@ -170,12 +247,12 @@ public class Player implements Runnable {
             System.out.println("catch player");
         } finally {
             System.out.println("bla bla bla");
+            playerThread = null;
         }
         if (!human) try {
-            aiThread.interrupt();
-            aiThread.join();
+            aiTask.get();
 
-        } catch (InterruptedException ignored) {
+        } catch (InterruptedException | ExecutionException ignored) {
         }
         env.logger.info("Thread " + Thread.currentThread().
 
@@ -188,20 +265,31 @@ public class Player implements Runnable {
      */
     private void createArtificialIntelligence() {
         // note: this is a very, very smart AI (!)
-        aiThread = new Thread(() -> {
+        aiTask = dealer.execute(() -> {
+            Thread.currentThread().setName("computer-" + id);
+            aiThread = Thread.currentThread();
             env.logger.info("Thread " + Thread.currentThread().getName() + " starting.");
+            // each computer player has its own seed, so a seeded game repeats the same key presses
+            Random rand = env.config.randomSeed == 0 ? new Random() : new Random(env.config.randomSeed + id + 1);
+            long interval = env.config.computerPressesPerSecond > 0
+                    ? (long) (1_000_000_000L / env.config.computerPressesPerSecond) : 0;
+            long nextPress = System.nanoTime();
             while (!terminate) {
                 // TODO implement player key press simulator
-                Random rand = new Random();
+                if (interval > 0) {
+                    nextPress += interval;
+                    long wait;
+                    while (!terminate && (wait = nextPress - System.nanoTime()) > 0) LockSupport.parkNanos(wait);
+                }
                 int press = rand.nextInt(env.config.tableSize);
                 keyPressed(press);
 //                try {
 //                    synchronized (this) { wait(); }
 //                } catch (InterruptedException ignored) {}
             }
+            aiThread = null;
             env.logger.info("Thread " + Thread.currentThread().getName() + " terminated.");
-        }, "computer-" + id);
-        aiThread.start();
+        });
     }
 
     /**
@@ -210,6 +298,25 @@ public class Player implements Runnable {
     public void terminate() {
         // TODO implement
         terminate = true;
+        // wake up the player and computer threads (the pooled threads are not interrupted, as they are reused)
+        terminateSite.locked(actions, () -> actions.notifyAll());
+        Thread ai = aiThread;
+        if (ai != null) LockSupport.unpark(ai);
+        releasePlayer();
+    }
+
+    /**
+     * Prepares the player for another game in the same process (see Dealer.reset).
+     */
+    void reset() {
+        terminate = false;
+        score = 0;
+        setOrNot = -1;
+        awaitingVerdict = false;
+        placedCards.clear();
+        actions.clear();
+        env.ui.setScore(id, 0);
+        env.ui.setFreeze(id, 0);
     }
 
     /**
@@ -221,21 +328,80 @@ public class Player implements Runnable {
         // TODO implement
 
         if (table.canPress && table.slotToCard[slot] != null) {
-            synchronized (actions) {
-                while (actions.size() == 3) {
+            keyPressSite.locked(actions, hold -> {
+                while (actions.remainingCapacity() == 0 && !terminate) {
                     try {
-                        actions.wait();
+                        hold.await();
                     } catch (InterruptedException ex) {
                         System.out.println(Thread.currentThread().getName() + " waiting for the queue to have room");
                         break;
                     }
                 }
                 if (!terminate) {
-                    actions.add(slot);
+                    enqueue(slot);
                 }
                 actions.notifyAll();
-            }
+                return null;
+            });
+        }
+    }
+
+    /**
+     * A non-blocking variant of keyPressed for input sources that must never wait (e.g. the game server threads).
+     *
+     * @param slot - the slot corresponding to the key pressed.
+     * @return - true iff the key press was queued (false if it was dropped because the queue is full).
+     */
+    public boolean offerKeyPress(int slot) {
+        return offerKeyPress(slot, false);
+    }
+
+    /**
+     * A non-blocking variant of keyPressed that can make room for the key press.
+     *
+     * @param slot          - the slot corresponding to the key pressed.
+     * @param replaceOldest - true iff the oldest queued key press is dropped when the queue is full.
+     * @return - true iff the key press was queued.
+     */
+    public boolean offerKeyPress(int slot, boolean replaceOldest) {
+        if (table.canPress && table.slotToCard[slot] != null) {
+            return offerKeySite.locked(actions, () -> {
+                if (terminate) return false;
+                if (replaceOldest && actions.remainingCapacity() == 0) dequeue();
+                if (actions.remainingCapacity() > 0) {
+                    enqueue(slot);
+                    actions.notifyAll();
+                    return true;
+                }
+                return false;
+            });
         }
+        return false;
+    }
+
+    /**
+     * Queues a key press with the time it was made (called with the actions lock held).
+     */
+    private void enqueue(int slot) {
+        pressedAt[(pressedHead + actions.size()) % pressedAt.length] = env.latency.now();
+        actions.add(slot);
+    }
+
+    /**
+     * Removes the oldest queued key press (called with the actions lock held).
+     *
+     * @return - the slot of the key press.
+     */
+    private int dequeue() {
+        pressedHead = (pressedHead + 1) % pressedAt.length;
+        return actions.poll();
+    }
+
+    /**
+     * @return - the time the last claim of the player was submitted to the dealer (see InputLatency.now).
+     */
+    long claimedAt() {
+        return claimedAt;
     }
 
     /**
@@ -259,14 +425,17 @@ public class Player implements Runnable {
         // TODO implement
 
         freeze(env.config.penaltyFreezeMillis, System.currentTimeMillis());
-        synchronized (actions) {
+        penaltySite.locked(actions, () -> {
             actions.clear();
             if (!human)
                 actions.notifyAll();
-        }
+        });
     }
 
     public void freeze(long time, long startTime) { // freeze
+        freezeMillis.add(time);
+        freezes.record(time * 1000000L);
+        GameEvents.Span frozen = env.events.freeze(id, time);
         while (System.currentTimeMillis() - startTime < time) {
             try {
                 playerThread.sleep(500);
@@ -274,10 +443,50 @@ public class Player implements Runnable {
 
             }
             env.ui.setFreeze(id, time - (System.currentTimeMillis() - startTime));
+            progressAt = System.currentTimeMillis();
         }
+        frozen.commit();
     }
 
     public int score() {
         return score;
     }
+
+    /**
+     * @return - the player thread (null if it is not running).
+     */
+    Thread thread() {
+        return playerThread;
+    }
+
+    /**
+     * @return - the last time the player thread made progress.
+     */
+    long progressAt() {
+        return progressAt;
+    }
+
+    /**
+     * @return - true iff the player submitted a claim and waits for the dealer's verdict.
+     */
+    boolean awaitingVerdict() {
+        return awaitingVerdict;
+    }
+
+    /**
+     * @return - the number of claim verdicts the player has handled, including its point or penalty.
+     */
+    long verdicts() {
+        return verdicts;
+    }
+
+    /**
+     * Sets the score of a resumed game (see Dealer.restore).
+     *
+     * @param score - the restored score.
+     */
+    void restoreScore(int score) {
+        this.score = score;
+        env.ui.setScore(id, score);
+    }
 }
@@ -1,16 +1,22 @@
 package bguspl.set.ex;
 
 import bguspl.set.Env;
+import bguspl.set.GameEvents;
+import bguspl.set.LatencyHistogram;
+import bguspl.set.LockProfiler;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
  * This class contains the data that is visible to the player.
  *
- * @inv slotToCard[x] == y iff cardToSlot[y] == x
+ * @inv slotToCard[x] == y iff cardToSlot.get(y) == x
  */
 public class Table {
 
@@ -25,14 +31,14 @@ public class Table {
     protected final Integer[] slotToCard; // card per slot (if any)
 
     /**
-     * Mapping between a card and the slot it is in (null if none).
+     * Mapping between a card and the slot it is in (only the cards on the table, so a deck of any size costs nothing).
      */
-    protected final Integer[] cardToSlot; // slot per card (if any)
+    protected final Map<Integer, Integer> cardToSlot; // slot per card (if any)
 
-    protected final int NUM_OF_SLOTS = 12;
-    private final int MAX_NUM_OF_PLAYERS = 6;
-
-    private int[][] Tokens = new int[NUM_OF_SLOTS][MAX_NUM_OF_PLAYERS];
+    /**
+     * The tokens on each slot (Tokens[slot][player] == 1 iff the player has a token on the slot).
+     */
+    private final int[][] Tokens;
 
     public int[][] getTokens(){
         return Tokens;
@@ -40,24 +46,57 @@ public class Table {
 
     protected volatile boolean canPress = false;
 
+    /**
+     * The number of times the cards on the table changed (only written under the table monitor).
+     */
+    private volatile long changes;
+
+    /**
+     * The number of legal sets on the table and the change it was counted at, {changes, sets} (see sets).
+     */
+    private volatile long[] setsCount = {-1, 0};
+
+    /**
+     * The time the table lock is held by each update (see MetricsRegistry).
+     */
+    private final LatencyHistogram lockHold;
+
+    /**
+     * The contention profiling sites of the table monitors (see LockProfiler).
+     */
+    private final LockProfiler.Site placeCardSite;
+    private final LockProfiler.Site removeCardSite;
+    private final LockProfiler.Site placeTokenSite;
+    private final LockProfiler.Site placeTokenCardsSite;
+    private final LockProfiler.Site removeTokenSite;
+    private final LockProfiler.Site placedCardsSite;
+    private final LockProfiler.Site resetSite;
+    private final LockProfiler.Site restoreSite;
+    private final LockProfiler.Site setsSite;
+
     /**
      * Constructor for testing.
      *
      * @param env        - the game environment objects.
      * @param slotToCard - mapping between a slot and the card placed in it (null if none).
-     * @param cardToSlot - mapping between a card and the slot it is in (null if none).
+     * @param cardToSlot - mapping between a card and the slot it is in (no entry if none).
      */
-    public Table(Env env, Integer[] slotToCard, Integer[] cardToSlot) {
+    public Table(Env env, Integer[] slotToCard, Map<Integer, Integer> cardToSlot) {
 
         this.env = env;
         this.slotToCard = slotToCard;
         this.cardToSlot = cardToSlot;
-
-        for (int i = 0; i < NUM_OF_SLOTS; i++) {
-            for (int j = 0; j < MAX_NUM_OF_PLAYERS; j++) {
-                Tokens[i][j] = 0;
-            }
-        }
+        this.lockHold = env.metrics.histogram("table.lock.hold");
+        this.placeCardSite = env.locks.site("table: Table.placeCard");
+        this.removeCardSite = env.locks.site("table: Table.removeCard");
+        this.placeTokenSite = env.locks.site("table: Table.placeToken");
+        this.placeTokenCardsSite = env.locks.site("placedCards: Table.placeToken");
+        this.removeTokenSite = env.locks.site("table: Table.removeToken");
+        this.placedCardsSite = env.locks.site("placedCards: Table.removeToken");
+        this.resetSite = env.locks.site("table: Table.reset");
+        this.restoreSite = env.locks.site("table: Table.restore");
+        this.setsSite = env.locks.site("table: Table.sets");
+        this.Tokens = new int[slotToCard.length][env.config.players];
     }
 
     /**
@@ -67,7 +106,7 @@ public class Table {
      */
     public Table(Env env) {
 
-        this(env, new Integer[env.config.tableSize], new Integer[env.config.deckSize]);
+        this(env, new Integer[env.config.tableSize], new ConcurrentHashMap<>(2 * env.config.tableSize));
     }
 
     /**
@@ -77,7 +116,7 @@ public class Table {
         List<Integer> deck = Arrays.stream(slotToCard).filter(Objects::nonNull).collect(Collectors.toList());
         env.util.findSets(deck, Integer.MAX_VALUE).forEach(set -> {
             StringBuilder sb = new StringBuilder().append("Hint: Set found: ");
-            List<Integer> slots = Arrays.stream(set).mapToObj(card -> cardToSlot[card]).sorted().collect(Collectors.toList());
+            List<Integer> slots = Arrays.stream(set).mapToObj(cardToSlot::get).sorted().collect(Collectors.toList());
             int[][] features = env.util.cardsToFeatures(set);
             System.out.println(sb.append("slots: ").append(slots).append(" features: ").append(Arrays.deepToString(features)));
         });
@@ -96,6 +135,26 @@ public class Table {
         return cards;
     }
 
+    /**
+     * Counts the legal sets on the table (for the table.sets metric). The cards are copied under the table monitor, so
+     * the count is of a table the dealer actually dealt, and it is only counted again after the cards changed.
+     *
+     * @return - the number of legal sets on the table.
+     */
+    public int sets() {
+        long[] counted = setsCount;
+        if (counted[0] == changes) return (int) counted[1];
+        List<Integer> cards = new ArrayList<>(slotToCard.length);
+        long change = setsSite.locked(this, () -> {
+            for (Integer card : slotToCard)
+                if (card != null) cards.add(card);
+            return changes;
+        });
+        int sets = env.util.findSets(cards, Integer.MAX_VALUE).size();
+        setsCount = new long[]{change, sets};
+        return sets;
+    }
+
     /**
      * Places a card on the table in a grid slot.
      *
@@ -103,17 +162,67 @@ public class Table {
      * @param slot - the slot in which the card should be placed.
      * @post - the card placed is on the table, in the assigned slot.
      */
-    public synchronized void placeCard(int card, int slot) {
-        try {
-            Thread.sleep(env.config.tableDelayMillis);
-        } catch (InterruptedException ignored) {
-        }
+    public void placeCard(int card, int slot) {
+        placeCardSite.locked(this, () -> {
+            long locked = System.nanoTime();
+            GameEvents.Span placing = env.events.placeCard(slot, card);
+            try {
+                Thread.sleep(env.config.tableDelayMillis);
+            } catch (InterruptedException ignored) {
+            }
 
-        cardToSlot[card] = slot;
-        slotToCard[slot] = card;
+            cardToSlot.put(card, slot);
+            slotToCard[slot] = card;
+            changes++;
 
-        // TODO implement
-        env.ui.placeCard(card, slot);
+            // TODO implement
+            env.ui.placeCard(card, slot);
+            lockHold.record(System.nanoTime() - locked);
+            placing.commit();
+        });
+    }
+
+    /**
+     * Clears the table for another game in the same process (see Dealer.reset).
+     */
+    public void reset() {
+        resetSite.locked(this, () -> {
+            canPress = false;
+            for (int slot = 0; slot < slotToCard.length; slot++) {
+                if (slotToCard[slot] != null) {
+                    cardToSlot.remove(slotToCard[slot]);
+                    slotToCard[slot] = null;
+                    env.ui.removeCard(slot);
+                }
+            }
+            changes++;
+            for (int[] slotTokens : Tokens)
+                Arrays.fill(slotTokens, 0);
+            env.ui.removeTokens();
+        });
+    }
+
+    /**
+     * Replaces all the cards on the table at once, without the table delay (used to resume a game).
+     *
+     * @param cards - the card in each slot (-1 if none).
+     */
+    public void restore(int[] cards) {
+        restoreSite.locked(this, () -> {
+            for (int slot = 0; slot < cards.length; slot++) {
+                if (slotToCard[slot] != null)
+                    cardToSlot.remove(slotToCard[slot]);
+                if (cards[slot] < 0) {
+                    slotToCard[slot] = null;
+                    env.ui.removeCard(slot);
+                } else {
+                    slotToCard[slot] = cards[slot];
+                    cardToSlot.put(cards[slot], slot);
+                    env.ui.placeCard(cards[slot], slot);
+                }
+            }
+            changes++;
+        });
     }
 
     /**
@@ -121,72 +230,91 @@ public class Table {
      *
      * @param slot - the slot from which to remove the card.
      */
-    public synchronized void removeCard(int slot, Player[] players) {
-        try {
-            Thread.sleep(env.config.tableDelayMillis);
-        } catch (InterruptedException ignored) {
-        }
+    public void removeCard(int slot, Player[] players) {
+        removeCardSite.locked(this, () -> {
+            long locked = System.nanoTime();
+            GameEvents.Span removing = env.events.removeCard(slot, slotToCard[slot]);
+            try {
+                Thread.sleep(env.config.tableDelayMillis);
+            } catch (InterruptedException ignored) {
+            }
 
-        // TODO implement
-        //remove from other players placed cards
-        for (int i = 0; i < players.length; i++) {
-            if (players[i].getPlacedCards().contains(slot)) {
-                removeToken(players[i].getId(), slot, players);
-                Integer slot1 = slot;
-                players[i].getPlacedCards().remove(slot1);
+            // TODO implement
+            //remove from other players placed cards
+            for (int i = 0; i < players.length; i++) {
+                if (players[i].getPlacedCards().contains(slot)) {
+                    removeToken(players[i].getId(), slot, players);
+                    Integer slot1 = slot;
+                    players[i].getPlacedCards().remove(slot1);
+                }
             }
-        }
 
-        cardToSlot[slotToCard[slot]] = null;
-        slotToCard[slot] = null;
-        for (int i = 0; i < players.length; i++) {
-            removeToken(i, slot, players);
-        }
-        env.ui.removeCard(slot);
+            int card = slotToCard[slot];
+            cardToSlot.remove(card);
+            slotToCard[slot] = null;
+            changes++;
+            for (int i = 0; i < players.length; i++) {
+                removeToken(i, slot, players);
+            }
+            env.ui.removeCard(slot);
+            lockHold.record(System.nanoTime() - locked);
+            removing.commit();
+        });
     }
 
     /**
-     * Places a player token on a grid slot.
+     * Places a player token on a grid slot and adds the slot to the player's placed cards, unless the slot is empty
+     * (its card was taken after the key was pressed), the player already has a token on it or has a token on the cards
+     * of a whole set (Config.featureSize).
      *
      * @param player - the player the token belongs to.
      * @param slot   - the slot on which to place the token.
+     * @return - true iff the token was placed.
      */
-    public synchronized void placeToken(int player, int slot, Player[] players) {
-        // TODO implement
-        if (Tokens[slot][player] == 0) {
-            Tokens[slot][player] = 1;
-            env.ui.placeToken(player, slot);
-        } else removeToken(player, slot, players);
+    public boolean placeToken(int player, int slot, Player[] players) {
+        return placeTokenSite.locked(this, () -> {
+            long locked = System.nanoTime();
+            try {
+                // under the table monitor, so the dealer cannot remove the card between the check and the token
+                if (slotToCard[slot] == null || Tokens[slot][player] == 1) return false;
+                List<Integer> placedCards = players[player].getPlacedCards();
+                boolean placed = placeTokenCardsSite.locked(placedCards, () -> {
+                    if (placedCards.size() >= env.config.featureSize) return false;
+                    return placedCards.add(slot);
+                });
+                if (!placed) return false;
+                Tokens[slot][player] = 1;
+                env.ui.placeToken(player, slot);
+                return true;
+            } finally {
+                lockHold.record(System.nanoTime() - locked);
+            }
+        });
     }
 
     /**
-     * Removes a token of a player from a grid slot.
+     * Removes a token of a player from a grid slot (and the slot from the player's placed cards).
      *
      * @param player - the player the token belongs to.
      * @param slot   - the slot from which to remove the token.
      * @return - true iff a token was successfully removed.
      */
     public boolean removeToken(int player, int slot, Player[] players) {
-        // TODO implement
-        synchronized (players[player].getPlacedCards()) {
-            if (players[player].getPlacedCards().contains(slotToCard[slot]) || Tokens[slot][player] == 1) {
+        // the table monitor first, as in placeToken and removeCard, so tokens and placed cards change together
+        return removeTokenSite.locked(this, () -> placedCardsSite.locked(players[player].getPlacedCards(), () -> {
+            Integer slot1 = slot;
+            boolean placed = players[player].getPlacedCards().remove(slot1);
+            if (placed || Tokens[slot][player] == 1) {
                 Tokens[slot][player] = 0;
                 env.ui.removeToken(player, slot);
-                Integer slot1 = slot;
-                players[player].getPlacedCards().remove(slot1);
                 return true;
             }
-        }
-//        if(Tokens[slot][player]==1){
-//            Tokens[slot][player]=0;
-//            env.ui.removeToken(player,slot);
-//            return true;
-//        }
-        return false;
+            return false;
+        }));
     }
 
     public boolean isExistsOnTable(int card) {
-        for (int i = 0; i < NUM_OF_SLOTS; i++) {
+        for (int i = 0; i < slotToCard.length; i++) {
             if (card == slotToCard[i])
                 return true;
         }
@@ -0,0 +1,171 @@
+package bguspl.set.ex;
+
+import bguspl.set.Env;
+
+import java.io.IOException;
+import java.lang.management.LockInfo;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MonitorInfo;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Watches the game threads for deadlocks (using ThreadMXBean) and for progress stalls: the dealer thread not making
+ * progress, or a player thread that has work (queued key presses or a claim waiting for a verdict) not making progress
+ * for longer than Config.watchdogStallMillis. On detection a report with the game state and a dump of all the threads
+ * (with the monitors they hold and wait for) is appended to Config.watchdogFile. The game is left running.
+ * <p>
+ * A condition is reported once, and again only after it cleared and reappeared.
+ */
+public class Watchdog implements Runnable {
+
+    private final Env env;
+    private final Dealer dealer;
+    private final Player[] players;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    /**
+     * The time between two checks.
+     */
+    private final long checkMillis;
+
+    /**
+     * The conditions that were reported and did not clear yet.
+     */
+    private final Set<String> reported = new HashSet<>();
+
+    private volatile boolean terminate;
+    private Thread watchdogThread;
+
+    public Watchdog(Env env, Dealer dealer, Player[] players) {
+        this.env = env;
+        this.dealer = dealer;
+        this.players = players;
+        this.checkMillis = Math.max(100, env.config.watchdogStallMillis / 4);
+    }
+
+    /**
+     * The watchdog thread: checks the game threads until closed.
+     */
+    @Override
+    public void run() {
+        watchdogThread = Thread.currentThread();
+        while (!terminate) {
+            try {
+                Thread.sleep(checkMillis);
+            } catch (InterruptedException ignored) {
+            }
+            if (!terminate) check();
+        }
+    }
+
+    public void close() {
+        terminate = true;
+        if (watchdogThread != null) watchdogThread.interrupt();
+    }
+
+    /**
+     * Detects the current conditions and reports the new ones.
+     */
+    void check() {
+        long now = System.currentTimeMillis();
+        Set<String> current = new TreeSet<>();
+
+        long[] deadlocked = threads.isSynchronizerUsageSupported()
+                ? threads.findDeadlockedThreads() : threads.findMonitorDeadlockedThreads();
+        if (deadlocked != null) {
+            Arrays.sort(deadlocked);
+            current.add("deadlock between threads " + Arrays.toString(deadlocked));
+        }
+
+        // the players are only expected to make progress while the dealer runs a game
+        if (dealer.thread() != null) {
+            long stalled = now - dealer.progressAt();
+            if (stalled > env.config.watchdogStallMillis)
+                current.add("dealer stalled");
+            for (Player player : players) {
+                if (player == null || player.thread() == null) continue;
+                boolean busy = player.awaitingVerdict() || !player.getActions().isEmpty();
+                if (busy && now - player.progressAt() > env.config.watchdogStallMillis)
+                    current.add("player " + player.id + " stalled");
+            }
+        }
+
+        reported.retainAll(current);
+        current.removeAll(reported);
+        if (current.isEmpty()) return;
+        reported.addAll(current);
+        report(now, current);
+    }
+
+    /**
+     * Appends the game state and a thread dump to the watchdog file.
+     *
+     * @param now        - the time of the check.
+     * @param conditions - the new conditions.
+     */
+    private void report(long now, Set<String> conditions) {
+        String nl = System.lineSeparator();
+        StringBuilder report = new StringBuilder();
+        report.append("==== watchdog report ").append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date(now)))
+                .append(" ====").append(nl);
+        for (String condition : conditions) report.append("detected: ").append(condition).append(nl);
+        report.append(nl).append(dealer.summary(now)).append(nl).append(nl);
+        report.append(threadDump()).append(nl);
+
+        env.logger.severe("watchdog detected " + conditions + ", see " + env.config.watchdogFile);
+        try {
+            Path path = Paths.get(env.config.watchdogFile);
+            if (path.getParent() != null) Files.createDirectories(path.getParent());
+            Files.write(path, report.toString().getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            env.logger.severe("cannot write the watchdog report: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return - the stacks of all the threads, with the monitors and locks they hold and wait for (like jstack).
+     */
+    private String threadDump() {
+        String nl = System.lineSeparator();
+        StringBuilder dump = new StringBuilder("thread dump:").append(nl);
+        for (ThreadInfo info : threads.dumpAllThreads(threads.isObjectMonitorUsageSupported(),
+                threads.isSynchronizerUsageSupported())) {
+            dump.append('"').append(info.getThreadName()).append("\" #").append(info.getThreadId()).append(' ')
+                    .append(info.getThreadState());
+            if (info.getLockName() != null) dump.append(" on ").append(info.getLockName());
+            if (info.getLockOwnerName() != null)
+                dump.append(" owned by \"").append(info.getLockOwnerName()).append("\" #").append(info.getLockOwnerId());
+            dump.append(nl);
+
+            StackTraceElement[] stack = info.getStackTrace();
+            for (int depth = 0; depth < stack.length; depth++) {
+                dump.append("\tat ").append(stack[depth]).append(nl);
+                if (depth == 0 && info.getLockInfo() != null)
+                    dump.append("\t- ").append(info.getThreadState() == Thread.State.BLOCKED ? "blocked on " : "waiting on ")
+                            .append(info.getLockInfo()).append(nl);
+                for (MonitorInfo monitor : info.getLockedMonitors())
+                    if (monitor.getLockedStackDepth() == depth) dump.append("\t- locked ").append(monitor).append(nl);
+            }
+            LockInfo[] synchronizers = info.getLockedSynchronizers();
+            if (synchronizers.length > 0) {
+                dump.append("\tlocked synchronizers:").append(nl);
+                for (LockInfo synchronizer : synchronizers) dump.append("\t- ").append(synchronizer).append(nl);
+            }
+            dump.append(nl);
+        }
+        return dump.toString();
+    }
+}
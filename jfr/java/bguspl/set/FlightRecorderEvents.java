@@ -0,0 +1,161 @@
+package bguspl.set;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import java.util.List;
+
+/**
+ * The game events as Java Flight Recorder events (created by GameEvents.create when Config.flightRecorderEvents is
+ * set). An event is only filled when it is enabled in the running recording, so the events cost little when no
+ * recording is taken. The timed events are begun when created and are their own spans, so their duration is the one
+ * JFR measures between begin and commit. The claim events carry the player and the claimed slots, the card events the
+ * slot and the card.
+ * <p>
+ * Note: jdk.jfr is not part of the Java 8 api, so this class is in its own source root, built on JDK 11 and later
+ * only (see the flight-recorder profile of the pom), and is only loaded through reflection.
+ */
+class FlightRecorderEvents implements GameEvents {
+
+    @Override
+    public Span claim(int player, List<Integer> slots) {
+        Claim event = new Claim();
+        if (!event.isEnabled()) return Span.NONE;
+        event.player = player;
+        event.slots = slots.toString();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void claimVerified(int player, List<Integer> slots, boolean accepted) {
+        ClaimVerified event = new ClaimVerified();
+        if (!event.isEnabled()) return;
+        event.player = player;
+        event.slots = slots.toString();
+        event.accepted = accepted;
+        event.commit();
+    }
+
+    @Override
+    public Span placeCard(int slot, int card) {
+        PlaceCard event = new PlaceCard();
+        if (!event.isEnabled()) return Span.NONE;
+        event.slot = slot;
+        event.card = card;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public Span removeCard(int slot, int card) {
+        RemoveCard event = new RemoveCard();
+        if (!event.isEnabled()) return Span.NONE;
+        event.slot = slot;
+        event.card = card;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public Span reshuffle() {
+        Reshuffle event = new Reshuffle();
+        if (!event.isEnabled()) return Span.NONE;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public Span freeze(int player, long millies) {
+        Freeze event = new Freeze();
+        if (!event.isEnabled()) return Span.NONE;
+        event.player = player;
+        event.freeze = millies;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public Span dealerSleep() {
+        DealerSleep event = new DealerSleep();
+        if (!event.isEnabled()) return Span.NONE;
+        event.begin();
+        return event;
+    }
+
+    @Name("bguspl.set.Claim")
+    @Label("Claim")
+    @Category("Set Game")
+    @Description("A player submitted a claim and waited for the verdict")
+    static class Claim extends Event implements Span {
+        @Label("Player")
+        int player;
+        @Label("Slots")
+        String slots;
+    }
+
+    @Name("bguspl.set.ClaimVerified")
+    @Label("Claim Verified")
+    @Category("Set Game")
+    @Description("The dealer checked a claim")
+    static class ClaimVerified extends Event {
+        @Label("Player")
+        int player;
+        @Label("Slots")
+        String slots;
+        @Label("Accepted")
+        boolean accepted;
+    }
+
+    @Name("bguspl.set.PlaceCard")
+    @Label("Place Card")
+    @Category("Set Game")
+    @StackTrace(false)
+    static class PlaceCard extends Event implements Span {
+        @Label("Slot")
+        int slot;
+        @Label("Card")
+        int card;
+    }
+
+    @Name("bguspl.set.RemoveCard")
+    @Label("Remove Card")
+    @Category("Set Game")
+    @StackTrace(false)
+    static class RemoveCard extends Event implements Span {
+        @Label("Slot")
+        int slot;
+        @Label("Card")
+        int card;
+    }
+
+    @Name("bguspl.set.Reshuffle")
+    @Label("Reshuffle")
+    @Category("Set Game")
+    static class Reshuffle extends Event implements Span {
+    }
+
+    @Name("bguspl.set.Freeze")
+    @Label("Freeze")
+    @Category("Set Game")
+    @StackTrace(false)
+    static class Freeze extends Event implements Span {
+        @Label("Player")
+        int player;
+        @Label("Freeze")
+        @Timespan(Timespan.MILLISECONDS)
+        long freeze;
+    }
+
+    @Name("bguspl.set.DealerSleep")
+    @Label("Dealer Sleep")
+    @Category("Set Game")
+    @StackTrace(false)
+    static class DealerSleep extends Event implements Span {
+    }
+}
@@ -0,0 +1,209 @@
+package bguspl.set;
+
+import bguspl.set.ex.Player;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * A test of the game server's handling of malformed client messages: sends each bad frame on its own connection and
+ * checks that the server closes it, then checks that the reactor still serves a well behaved client (a single
+ * reactor thread, so a reactor stuck on a bad connection would starve it). Also checks that a player id is joined by
+ * a single connection, and that the human players cannot be joined remotely.
+ */
+class ProtocolTest {
+
+    /**
+     * The time the server has to close a bad connection or to answer a good one.
+     */
+    private static final int TIMEOUT_MILLIS = 2000;
+
+    private static Config config;
+    private static GameServer server;
+
+    @BeforeAll
+    static void startServer() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("ServerPort", "0");
+        properties.setProperty("ServerIoThreads", "1");
+        properties.setProperty("ComputerPlayers", "1");
+        properties.setProperty("LogLevel", "OFF");
+        Logger logger = Logger.getAnonymousLogger();
+        logger.setUseParentHandlers(false);
+        config = new Config(logger, properties);
+
+        // no players: the key presses of the accepted messages are dropped
+        server = new GameServer(logger, config, new Player[config.players]);
+        server.start();
+    }
+
+    @AfterAll
+    static void stopServer() {
+        server.close();
+    }
+
+    // server to client messages whose length fields do not fit the server's read buffer
+
+    @Test
+    void frameLongerThanTheReadBuffer() throws IOException {
+        expectClosed(frame(ByteBuffer.allocate(5 + 1500).put(Protocol.FRAME).putInt(4000)));
+    }
+
+    @Test
+    void winnersLongerThanTheReadBuffer() throws IOException {
+        expectClosed(frame(ByteBuffer.allocate(3 + 1200).put(Protocol.WINNERS).putShort((short) 2000)));
+    }
+
+    @Test
+    void shortServerMessage() throws IOException {
+        expectClosed(frame(ByteBuffer.allocate(7).put(Protocol.PLACE_CARD).putShort((short) 0).putInt(0)));
+    }
+
+    @Test
+    void unknownOpcode() throws IOException {
+        expectClosed(frame(ByteBuffer.allocate(3).put((byte) 0x7F).putShort((short) 0)));
+    }
+
+    // claims whose count is out of [1, featureSize]
+
+    @Test
+    void claimWithANegativeCount() throws IOException {
+        expectClosed(frame(ByteBuffer.allocate(4).put(Protocol.CLAIM).put((byte) -1).putShort((short) 0)));
+    }
+
+    @Test
+    void claimWithNoSlots() throws IOException {
+        expectClosed(frame(ByteBuffer.allocate(2).put(Protocol.CLAIM).put((byte) 0)));
+    }
+
+    @Test
+    void claimWithMoreSlotsThanASet() throws IOException {
+        ByteBuffer tooMany = ByteBuffer.allocate(2 + 2 * (config.featureSize + 1)).put(Protocol.CLAIM)
+                .put((byte) (config.featureSize + 1));
+        while (tooMany.hasRemaining()) tooMany.putShort((short) 0);
+        expectClosed(frame(tooMany));
+    }
+
+    /**
+     * A legal claim followed by a join: the answer shows both were handled on the same connection.
+     */
+    @Test
+    void legalClaimAndJoin() throws IOException {
+        byte[] claim = bytes(Protocol.claim(new int[config.featureSize]));
+        byte[] join = bytes(Protocol.join(-1));
+        expectJoined(frame(ByteBuffer.allocate(claim.length + join.length).put(claim).put(join)));
+    }
+
+    /**
+     * A computer player is joined by the first connection only.
+     */
+    @Test
+    void computerPlayerIsJoinedOnce() throws IOException {
+        int computer = config.humanPlayers;
+        try (Socket first = join(computer)) {
+            // answered before the second join is sent, so the first connection is the first to join
+            expectJoinedAs(first, computer);
+            try (Socket second = join(computer)) {
+                expectJoinedAs(second, -1);
+            }
+        }
+    }
+
+    /**
+     * A human player is not joined by any connection.
+     */
+    @Test
+    void humanPlayerIsNotJoined() throws IOException {
+        try (Socket human = join(0)) {
+            expectJoinedAs(human, config.humanPlayers > 0 ? -1 : 0);
+        }
+    }
+
+    /**
+     * @return - the whole backing array of a buffer built by the test (including the bytes not written).
+     */
+    private static byte[] frame(ByteBuffer buffer) {
+        return buffer.array();
+    }
+
+    /**
+     * @return - the remaining bytes of a message built by Protocol (a read-only buffer).
+     */
+    private static byte[] bytes(ByteBuffer message) {
+        byte[] bytes = new byte[message.remaining()];
+        message.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Connects to the server.
+     */
+    private static Socket connect() throws IOException {
+        Socket socket = new Socket("127.0.0.1", server.port());
+        socket.setSoTimeout(TIMEOUT_MILLIS);
+        return socket;
+    }
+
+    /**
+     * Sends the bytes and checks that the server closes the connection, and that it still serves new connections.
+     */
+    private static void expectClosed(byte[] bytes) throws IOException {
+        try (Socket socket = connect()) {
+            OutputStream out = socket.getOutputStream();
+            try {
+                out.write(bytes);
+                out.flush();
+                // reads whatever the server sent until it closes the connection
+                while (socket.getInputStream().read() >= 0) ;
+            } catch (SocketTimeoutException e) {
+                fail("the connection was not closed within " + TIMEOUT_MILLIS + " ms");
+            } catch (SocketException e) {
+                // reset by the server while the rest of the frame was sent, which closes it as well
+            }
+        }
+        // the reactor must still serve new connections
+        expectJoined(bytes(Protocol.join(-1)));
+    }
+
+    /**
+     * Sends the bytes and checks that the server answers with JOINED.
+     */
+    private static void expectJoined(byte[] bytes) throws IOException {
+        try (Socket socket = connect()) {
+            socket.getOutputStream().write(bytes);
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            assertEquals(Protocol.JOINED, in.readByte(), "the answer opcode");
+        }
+    }
+
+    /**
+     * Connects and sends a join request.
+     */
+    private static Socket join(int player) throws IOException {
+        Socket socket = connect();
+        socket.getOutputStream().write(bytes(Protocol.join(player)));
+        return socket;
+    }
+
+    /**
+     * Checks that the server answers a join request with JOINED and the given player id.
+     */
+    private static void expectJoinedAs(Socket socket, int player) throws IOException {
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        assertEquals(Protocol.JOINED, in.readByte(), "the answer opcode");
+        assertEquals(player, in.readShort(), "the joined player");
+    }
+}
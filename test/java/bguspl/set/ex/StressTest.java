@@ -0,0 +1,246 @@
+package bguspl.set.ex;
+
+import bguspl.set.Config;
+import bguspl.set.UserInterfaceAdapter;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A concurrency stress test of the table and dealer invariants. Plays short games with many computer players, no
+ * table delays or freezes, a short turn timeout (so the dealer often reshuffles while tokens are toggled) and random
+ * spins at every monitor of the dealer, the players and the table (Config.scheduleFuzzing, see LockProfiler) and in
+ * every user interface call, so the race windows are wider. While a game runs a checker thread verifies under the table monitor:
+ * <ul>
+ *     <li>slotToCard[x] == y iff cardToSlot.get(y) == x,</li>
+ *     <li>no card is placed twice and no card is placed on an occupied slot,</li>
+ *     <li>no token is on an empty slot and no player has more tokens than the cards of a set,</li>
+ *     <li>the tokens of each player match its placed cards (a mismatch that lasts is a lost token).</li>
+ *     <li>the placed cards of each player only change under their lock.</li>
+ * </ul>
+ * After each game it verifies that the game terminated, that the scores add up to the accepted sets, and that no
+ * tokens or placed cards were left behind.
+ * <p>
+ * Game g is seeded with seed + g (the cards, the key presses and the spins of each thread), so a game that violated
+ * an invariant can be played again on its own with -Dstress.games=1 -Dstress.seed=[seed + g].
+ * <p>
+ * The default run is short enough for every build. A longer run is e.g.
+ * mvn test -Dtest=StressTest -Dstress.games=10 -Dstress.players=16 -Dstress.gameSeconds=5, and the other parameters
+ * are stress.spinMax, stress.seed and stress.featureSize.
+ */
+class StressTest {
+
+    /**
+     * The time a player's tokens may differ from its placed cards (while a toggle is in progress) before it is
+     * reported as a lost token.
+     */
+    private static final long LOST_TOKEN_MILLIS = 500;
+
+    /**
+     * The time a game may take to terminate before it is reported as hung.
+     */
+    private static final long TERMINATE_SECONDS = 30;
+
+    /**
+     * The violations of each invariant and the first example of each.
+     */
+    private final Map<String, LongAdder> violations = new ConcurrentSkipListMap<>();
+    private final Map<String, String> examples = new ConcurrentSkipListMap<>();
+
+    @Test
+    void invariantsHold() throws Exception {
+        int games = Integer.getInteger("stress.games", 2);
+        int players = Integer.getInteger("stress.players", 8);
+        double gameSeconds = Double.parseDouble(System.getProperty("stress.gameSeconds", "2"));
+        long spinMax = Long.getLong("stress.spinMax", 100);
+        long seed = Long.getLong("stress.seed", 1);
+        int featureSize = Integer.getInteger("stress.featureSize", 3);
+
+        for (int game = 0; game < games; game++)
+            play(game, players, (long) (gameSeconds * 1000), spinMax, seed + game, featureSize);
+        assertTrue(violations.isEmpty(), this::report);
+    }
+
+    private void violation(String invariant, String example) {
+        violations.computeIfAbsent(invariant, key -> new LongAdder()).increment();
+        examples.putIfAbsent(invariant, example);
+    }
+
+    /**
+     * Plays one game and checks it.
+     */
+    private void play(int game, int playerCount, long gameMillis, long spinMax, long seed, int featureSize)
+            throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("FeatureSize", Integer.toString(featureSize));
+        properties.setProperty("HumanPlayers", "0");
+        properties.setProperty("ComputerPlayers", Integer.toString(playerCount));
+        properties.setProperty("TurnTimeoutSeconds", "1");
+        properties.setProperty("TableDelaySeconds", "0");
+        properties.setProperty("PointFreezeSeconds", "0");
+        properties.setProperty("PenaltyFreezeSeconds", "0");
+        properties.setProperty("RandomSpinMin", "0");
+        properties.setProperty("RandomSpinMax", Long.toString(spinMax));
+        properties.setProperty("RandomSeed", Long.toString(seed));
+        properties.setProperty("ScheduleFuzzing", "True");
+        properties.setProperty("ScheduleSeed", Long.toString(seed));
+        properties.setProperty("LogLevel", "OFF");
+        properties.setProperty("JmxMetrics", "False");
+        HeadlessGame headless = new HeadlessGame(properties, new TableObserver(game));
+        Config config = headless.config;
+        Table table = headless.table;
+        Player[] players = headless.players;
+        Dealer dealer = headless.dealer;
+
+        long started = System.currentTimeMillis();
+        Future<?> task = headless.start();
+        long[] mismatchSince = new long[players.length];
+        while (!task.isDone() && System.currentTimeMillis() - started < gameMillis) {
+            check(game, config, table, players, mismatchSince);
+            Thread.sleep(1);
+        }
+
+        // ends the game the way the window's exit button does
+        dealer.terminate();
+        try {
+            task.get(TERMINATE_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            violation("the game terminates", "game " + game + " did not terminate within " + TERMINATE_SECONDS + "s");
+            return;
+        } finally {
+            dealer.shutdown();
+        }
+
+        long accepted = headless.env.metrics.counter("claims.accepted").sum();
+        int scores = Arrays.stream(players).mapToInt(Player::score).sum();
+        if (scores != accepted)
+            violation("the scores add up to the accepted sets",
+                    "game " + game + ": scores " + scores + ", accepted sets " + accepted);
+        for (Player player : players) {
+            if (!player.getPlacedCards().isEmpty())
+                violation("no placed cards are left after the game",
+                        "game " + game + ": player " + player.id + " placed cards " + player.getPlacedCards());
+            for (int slot = 0; slot < config.tableSize; slot++)
+                if (table.getTokens()[slot][player.id] != 0)
+                    violation("no tokens are left after the game",
+                            "game " + game + ": player " + player.id + " token on slot " + slot);
+        }
+        System.out.println(String.format("game %d (seed %d): %.1f s, %d claims, %d accepted, %d violations so far", game, seed,
+                (System.currentTimeMillis() - started) / 1000.0, headless.env.metrics.counter("claims.submitted").sum(),
+                accepted, violations.values().stream().mapToLong(LongAdder::sum).sum()));
+    }
+
+    /**
+     * Checks the table invariants while holding the table monitor.
+     */
+    private void check(int game, Config config, Table table, Player[] players, long[] mismatchSince) {
+        long now = System.currentTimeMillis();
+        synchronized (table) {
+            for (int slot = 0; slot < table.slotToCard.length; slot++) {
+                Integer card = table.slotToCard[slot];
+                if (card != null && !Integer.valueOf(slot).equals(table.cardToSlot.get(card)))
+                    violation("slotToCard[x] == y iff cardToSlot.get(y) == x", "game " + game + ": slot " + slot
+                            + " holds card " + card + " but the card is in slot " + table.cardToSlot.get(card));
+            }
+            for (Map.Entry<Integer, Integer> entry : table.cardToSlot.entrySet()) {
+                int card = entry.getKey();
+                int slot = entry.getValue();
+                if (!Integer.valueOf(card).equals(table.slotToCard[slot]))
+                    violation("slotToCard[x] == y iff cardToSlot.get(y) == x", "game " + game + ": card " + card
+                            + " is in slot " + slot + " but the slot holds card " + table.slotToCard[slot]);
+            }
+
+            int[][] tokens = table.getTokens();
+            for (Player player : players) {
+                TreeSet<Integer> tokenSlots = new TreeSet<>();
+                for (int slot = 0; slot < tokens.length; slot++) {
+                    if (tokens[slot][player.id] == 0) continue;
+                    tokenSlots.add(slot);
+                    if (table.slotToCard[slot] == null)
+                        violation("no token is on an empty slot",
+                                "game " + game + ": player " + player.id + " has a token on empty slot " + slot);
+                }
+                if (tokenSlots.size() > config.featureSize)
+                    violation("no player has more tokens than the cards of a set",
+                            "game " + game + ": player " + player.id + " has tokens on " + tokenSlots);
+
+                // copied through the list's fail-fast iterator, so a change without the lock shows as a violation
+                List<Integer> placed = new ArrayList<>();
+                synchronized (player.getPlacedCards()) {
+                    try {
+                        for (int slot : player.getPlacedCards()) placed.add(slot);
+                    } catch (ConcurrentModificationException e) {
+                        violation("the placed cards only change under their lock", "game " + game + ": player "
+                                + player.id + " placed cards changed while they were copied");
+                        continue;
+                    }
+                }
+                if (tokenSlots.equals(new TreeSet<>(placed))) {
+                    mismatchSince[player.id] = 0;
+                } else if (mismatchSince[player.id] == 0) {
+                    mismatchSince[player.id] = now;
+                } else if (now - mismatchSince[player.id] > LOST_TOKEN_MILLIS) {
+                    violation("the tokens of a player match its placed cards", "game " + game + ": player "
+                            + player.id + " placed cards " + placed + " but has tokens on " + tokenSlots);
+                    mismatchSince[player.id] = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return - the violated invariants, how many times and an example of each.
+     */
+    private String report() {
+        StringBuilder report = new StringBuilder("violated invariants:");
+        violations.forEach((invariant, count) -> report.append(System.lineSeparator()).append("  ").append(invariant)
+                .append(": ").append(count.sum()).append(" times, e.g. ").append(examples.get(invariant)));
+        return report.toString();
+    }
+
+    /**
+     * Checks the card placements as the table reports them (the table calls it while holding its monitor).
+     */
+    private class TableObserver extends UserInterfaceAdapter {
+
+        private final int game;
+        private final Map<Integer, Integer> slotOfCard = new HashMap<>();
+        private final Map<Integer, Integer> cardInSlot = new HashMap<>();
+
+        private TableObserver(int game) {
+            this.game = game;
+        }
+
+        @Override
+        public synchronized void placeCard(int card, int slot) {
+            Integer placed = slotOfCard.put(card, slot);
+            if (placed != null)
+                violation("no card is placed twice",
+                        "game " + game + ": card " + card + " placed in slot " + slot + " while in slot " + placed);
+            Integer occupied = cardInSlot.put(slot, card);
+            if (occupied != null)
+                violation("no card is placed on an occupied slot",
+                        "game " + game + ": card " + card + " placed on card " + occupied + " in slot " + slot);
+        }
+
+        @Override
+        public synchronized void removeCard(int slot) {
+            Integer card = cardInSlot.remove(slot);
+            if (card != null) slotOfCard.remove(card);
+        }
+    }
+}